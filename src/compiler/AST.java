@@ -41,10 +41,12 @@ public class AST {
 
     public static class FunNode extends DecNode {
         final String id;
+        int sym; // interned id (see Symbols), set by the AST generation
         final TypeNode retType;
         final List<ParNode> parlist;
         final List<DecNode> declist;
         final Node exp;
+        String label;
 
         FunNode(String i, TypeNode rt, List<ParNode> pl, List<DecNode> dl, Node e) {
             id = i;
@@ -64,6 +66,7 @@ public class AST {
 
     public static class ParNode extends DecNode {
         final String id;
+        int sym; // interned id (see Symbols), set by the AST generation
 
         ParNode(String i, TypeNode t) {
             id = i;
@@ -78,6 +81,7 @@ public class AST {
 
     public static class VarNode extends DecNode {
         final String id;
+        int sym; // interned id (see Symbols), set by the AST generation
         final Node exp;
 
         VarNode(String i, TypeNode t, Node v) {
@@ -169,6 +173,7 @@ public class AST {
 
     public static class CallNode extends Node {
         final String id;
+        int sym; // interned id (see Symbols), set by the AST generation
         final List<Node> arglist;
         STentry entry;
         int nl;
@@ -186,6 +191,7 @@ public class AST {
 
     public static class IdNode extends Node {
         final String id;
+        int sym; // interned id (see Symbols), set by the AST generation
         STentry entry;
         int nl;
 
@@ -369,6 +375,7 @@ public class AST {
         final List<MethodNode> methods;
         final String id;
         final String superId;
+        int sym, superSym; // interned id (see Symbols), set by the AST generation
         STentry superEntry;
 
         ClassNode(String i, TypeNode t, List<FieldNode> f, List<MethodNode> m, String sId) {
@@ -387,6 +394,7 @@ public class AST {
 
     public static class FieldNode extends DecNode {
         final String id;
+        int sym; // interned id (see Symbols), set by the AST generation
         int offset;
 
         FieldNode(String i, TypeNode t) {
@@ -402,6 +410,7 @@ public class AST {
 
     public static class MethodNode extends DecNode {
         final String id;
+        int sym; // interned id (see Symbols), set by the AST generation
         final TypeNode retType;
         final List<ParNode> parlist;
         final List<DecNode> declist;
@@ -426,10 +435,12 @@ public class AST {
     public static class ClassCallNode extends Node {
         final String objId;
         final String methodId;
+        int objSym, methodSym; // interned id (see Symbols), set by the AST generation
         final List<Node> arglist;
         STentry entry;
         STentry methodEntry;
         int nl;
+        boolean direct; // a single method can be reached (see DevirtualizationASTVisitor): no dispatch table lookup
 
         ClassCallNode(String oi, String mi, List<Node> p) {
             objId = oi;
@@ -443,8 +454,28 @@ public class AST {
         }
     }
 
+    // field of an object variable: not in the syntax, produced by inlining methods (see InliningASTVisitor)
+    public static class FieldAccessNode extends Node {
+        final String objId;
+        final String fieldId;
+        STentry entry;
+        STentry fieldEntry;
+        int nl;
+
+        FieldAccessNode(String oi, String fi) {
+            objId = oi;
+            fieldId = fi;
+        }
+
+        @Override
+        public <S, E extends Exception> S accept(BaseASTVisitor<S, E> visitor) throws E {
+            return visitor.visitNode(this);
+        }
+    }
+
     public static class NewNode extends Node {
         final String id;
+        int sym; // interned id (see Symbols), set by the AST generation
         final List<Node> arglist;
         STentry entry;
         int nl;
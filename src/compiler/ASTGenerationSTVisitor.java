@@ -18,11 +18,17 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
 
     String indent;
     public boolean print;
+    private final TypeRels rels; // tipi classe condivisi con il resto della compilazione
+    private final Symbols symbols; // numeri degli identificatori, usati dalla tabella dei simboli
 
-    ASTGenerationSTVisitor() {
+    ASTGenerationSTVisitor(CompilerContext c) {
+        rels = c.typeRels;
+        symbols = c.symbols;
     }
 
-    ASTGenerationSTVisitor(boolean debug) {
+    ASTGenerationSTVisitor(CompilerContext c, boolean debug) {
+        rels = c.typeRels;
+        symbols = c.symbols;
         print = debug;
     }
 
@@ -84,7 +90,6 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
             n = new OrNode(l, r);
             n.setLine(c.OR().getSymbol().getLine());
         }
-        System.out.println(n);
         return n;
     }
 
@@ -142,9 +147,10 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
     @Override
     public Node visitVardec(VardecContext c) {
         if (print) printVarAndProdName(c);
-        Node n = null;
+        VarNode n = null;
         if (c.ID() != null) { //non-incomplete ST
             n = new VarNode(c.ID().getText(), (TypeNode) visit(c.type()), visit(c.exp()));
+            n.sym = symbols.intern(n.id);
             n.setLine(c.VAR().getSymbol().getLine());
         }
         return n;
@@ -156,14 +162,16 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
         List<ParNode> parList = new ArrayList<>();
         for (int i = 1; i < c.ID().size(); i++) {
             ParNode p = new ParNode(c.ID(i).getText(), (TypeNode) visit(c.type(i)));
+            p.sym = symbols.intern(p.id);
             p.setLine(c.ID(i).getSymbol().getLine());
             parList.add(p);
         }
         List<DecNode> decList = new ArrayList<>();
         for (DecContext dec : c.dec()) decList.add((DecNode) visit(dec));
-        Node n = null;
+        FunNode n = null;
         if (!c.ID().isEmpty()) { //non-incomplete ST
             n = new FunNode(c.ID(0).getText(), (TypeNode) visit(c.type(0)), parList, decList, visit(c.exp()));
+            n.sym = symbols.intern(n.id);
             n.setLine(c.FUN().getSymbol().getLine());
         }
         return n;
@@ -172,19 +180,19 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
     @Override
     public Node visitIntType(IntTypeContext c) {
         if (print) printVarAndProdName(c);
-        return new IntTypeNode();
+        return TypeRels.INT;
     }
 
     @Override
     public Node visitBoolType(BoolTypeContext c) {
         if (print) printVarAndProdName(c);
-        return new BoolTypeNode();
+        return TypeRels.BOOL;
     }
 
     @Override
     public Node visitIdType(IdTypeContext c) {
         if (print) printVarAndProdName(c);
-        return new RefTypeNode(c.ID().getText());
+        return rels.refType(c.ID().getText());
     }
 
     @Override
@@ -232,7 +240,8 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
     @Override
     public Node visitId(IdContext c) {
         if (print) printVarAndProdName(c);
-        Node n = new IdNode(c.ID().getText());
+        IdNode n = new IdNode(c.ID().getText());
+        n.sym = symbols.intern(n.id);
         n.setLine(c.ID().getSymbol().getLine());
         return n;
     }
@@ -242,7 +251,8 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
         if (print) printVarAndProdName(c);
         List<Node> arglist = new ArrayList<>();
         for (ExpContext arg : c.exp()) arglist.add(visit(arg));
-        Node n = new CallNode(c.ID().getText(), arglist);
+        CallNode n = new CallNode(c.ID().getText(), arglist);
+        n.sym = symbols.intern(n.id);
         n.setLine(c.ID().getSymbol().getLine());
         return n;
     }
@@ -254,6 +264,7 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
         int align = c.EXTENDS() == null ? 1 : 2;
         for (int i = align; i < c.ID().size(); i++) {
             FieldNode f = new FieldNode(c.ID(i).getText(), (TypeNode) visit(c.type(i - align)));
+            f.sym = symbols.intern(f.id);
             f.setLine(c.ID(i).getSymbol().getLine());
             fields.add(f);
         }
@@ -263,11 +274,13 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
             m.setLine(c.methdec(i).ID(0).getSymbol().getLine());
             methods.add(m);
         }
-        Node n = null;
+        ClassNode n = null;
         if (!c.ID().isEmpty()) {
             String superId = null;
             if (c.EXTENDS() != null) superId = c.ID(1).getText();
             n = new ClassNode(c.ID(0).getText(), new ClassTypeNode(), fields, methods, superId);
+            n.sym = symbols.intern(n.id);
+            if (superId != null) n.superSym = symbols.intern(superId);
             n.setLine(c.CLASS().getSymbol().getLine());
         }
         return n;
@@ -279,14 +292,16 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
         List<ParNode> parList = new ArrayList<>();
         for (int i = 1; i < c.ID().size(); i++) {
             ParNode p = new ParNode(c.ID(i).getText(), (TypeNode) visit(c.type(i)));
+            p.sym = symbols.intern(p.id);
             p.setLine(c.ID(i).getSymbol().getLine());
             parList.add(p);
         }
         List<DecNode> decList = new ArrayList<>();
         for (DecContext dec : c.dec()) decList.add((DecNode) visit(dec));
-        Node n = null;
+        MethodNode n = null;
         if (!c.ID().isEmpty()) { //non-incomplete ST
             n = new MethodNode(c.ID(0).getText(), (TypeNode) visit(c.type(0)), parList, decList, visit(c.exp()));
+            n.sym = symbols.intern(n.id);
             n.setLine(c.FUN().getSymbol().getLine());
         }
         return n;
@@ -303,9 +318,10 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
         if (print) printVarAndProdName(c);
         List<Node> arglist = new ArrayList<>();
         for (ExpContext arg : c.exp()) arglist.add(visit(arg));
-        Node n = null;
+        NewNode n = null;
         if (c.ID() != null) {
             n = new NewNode(c.ID().getText(), arglist);
+            n.sym = symbols.intern(n.id);
             n.setLine(c.ID().getSymbol().getLine());
         }
         return n;
@@ -316,9 +332,11 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
         if (print) printVarAndProdName(c);
         List<Node> arglist = new ArrayList<>();
         for (ExpContext arg : c.exp()) arglist.add(visit(arg));
-        Node n = null;
+        ClassCallNode n = null;
         if (c.ID().size() == 2) {
             n = new ClassCallNode(c.ID(0).getText(), c.ID(1).getText(), arglist);
+            n.objSym = symbols.intern(n.objId);
+            n.methodSym = symbols.intern(n.methodId);
             n.setLine(c.ID(1).getSymbol().getLine());
         }
         return n;
@@ -0,0 +1,106 @@
+package compiler;
+
+import registervm.ExecuteRVM;
+import visualsvm.ExecuteVM;
+import visualsvm.ProgramImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Stack backend (CodeGenerationASTVisitor, ExecuteVM) against register backend (RegisterCodeGenerationASTVisitor,
+ * ExecuteRVM): code size, executed instructions and run time of each program, after checking that both
+ * print the same output.
+ * <p>
+ * Usage: java compiler.BackendBenchmark [-seconds s] [file.fool...]
+ * Default: the .fool files of the current directory. Each program is run again and again for the given time
+ * per backend (default 1 s), after as much warm-up.
+ */
+public class BackendBenchmark {
+
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws Exception {
+        double seconds = 1;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-seconds") && i + 1 < args.length) seconds = Double.parseDouble(args[++i]);
+            else files.add(Paths.get(args[i]));
+        }
+        if (files.isEmpty()) {
+            try (Stream<Path> list = Files.list(Paths.get("."))) {
+                list.filter(p -> p.toString().endsWith(".fool")).sorted().forEach(files::add);
+            }
+        }
+
+        System.out.printf("%-16s %8s %8s %12s %12s %7s %12s %12s %8s%n", "program", "stack sz", "reg sz",
+                "stack instr", "reg instr", "ratio", "stack us", "reg us", "speedup");
+        int failed = 0;
+        for (Path file : files) {
+            Compilation compilation = new Compilation(file, NOWHERE, false);
+            if (!compilation.frontEnd()) {
+                System.out.println(file + ": compilation errors");
+                failed++;
+                continue;
+            }
+            compilation.optimize();
+            ProgramImage stack = compilation.assemble(compilation.generateCode());
+            ProgramImage registers = compilation.assembleRegisterCode(compilation.generateRegisterCode());
+            if (stack == null || registers == null) {
+                System.out.println(file + ": assembly errors");
+                failed++;
+                continue;
+            }
+
+            ByteArrayOutputStream stackOut = new ByteArrayOutputStream(), registerOut = new ByteArrayOutputStream();
+            ExecuteVM vm = new ExecuteVM(stack.code, stack.data, new PrintStream(stackOut, true), 0, false);
+            ExecuteRVM rvm = new ExecuteRVM(registers.code, new PrintStream(registerOut, true));
+            vm.cpu();
+            rvm.cpu();
+            if (!stackOut.toString().equals(registerOut.toString())) {
+                System.out.println(file + ": different output\n  stack:     " + stackOut.toString().strip().replace("\n", " ")
+                        + "\n  registers: " + registerOut.toString().strip().replace("\n", " "));
+                failed++;
+                continue;
+            }
+
+            ExecuteVM stackVM = new ExecuteVM(stack.code, stack.data, NOWHERE, 0, false);
+            double stackNanos = measure(() -> {
+                stackVM.reset();
+                stackVM.cpu();
+                return stackVM.getElapsedNanos();
+            }, seconds);
+            ExecuteRVM registerVM = new ExecuteRVM(registers.code, NOWHERE);
+            double registerNanos = measure(() -> {
+                registerVM.reset();
+                registerVM.cpu();
+                return registerVM.getElapsedNanos();
+            }, seconds);
+            System.out.printf("%-16s %8d %8d %12d %12d %6.2fx %12.2f %12.2f %7.2fx%n", file.getFileName(),
+                    stack.code.length, registers.code.length, vm.getInstructionCount(), rvm.getInstructionCount(),
+                    (double) vm.getInstructionCount() / rvm.getInstructionCount(),
+                    stackNanos / 1e3, registerNanos / 1e3, stackNanos / registerNanos);
+        }
+        if (failed > 0) System.exit(1);
+    }
+
+    private interface Run {
+        long nanos(); // runs the program once from the start, returns the time spent in cpu()
+    }
+
+    // average run time, after a warm-up of the same duration; resetting the VM is not timed
+    private static double measure(Run run, double seconds) {
+        long budget = (long) (seconds * 1e9);
+        for (long start = System.nanoTime(); System.nanoTime() - start < budget; ) run.nanos();
+        long elapsed = 0, runs = 0;
+        for (long start = System.nanoTime(); System.nanoTime() - start < budget; runs++) elapsed += run.nanos();
+        return (double) elapsed / runs;
+    }
+}
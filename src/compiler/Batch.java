@@ -0,0 +1,122 @@
+package compiler;
+
+import visualsvm.ProgramImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Batch compiler: compiles many .fool files in parallel, each one through the whole pipeline
+ * (front end, code generation, assembly, .fvm image) in a Compilation of its own.
+ * <p>
+ * Usage: java compiler.Batch [-j threads] (file.fool | directory)...
+ * Directories are searched recursively for .fool files. Prints per-file and aggregate timings and throughput.
+ */
+public class Batch {
+
+    private record Result(Path file, int lines, boolean ok, long frontEndNanos, long frontEndBytes, long codeGenNanos,
+                          long assemblyNanos, String messages) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j")) threads = Integer.parseInt(args[++i]);
+            else addSources(Paths.get(args[i]), files);
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: java compiler.Batch [-j threads] (file.fool | directory)...");
+            System.exit(2);
+        }
+        // largest files first, so that a big file does not start last and keep a single core busy at the end
+        files.sort(Comparator.comparingLong(Batch::size).reversed());
+
+        long start = System.nanoTime();
+        List<Result> results = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Path file : files) futures.add(pool.submit(() -> compile(file)));
+            for (Future<Result> future : futures) results.add(future.get());
+        } finally {
+            pool.shutdown();
+        }
+        long wallNanos = System.nanoTime() - start;
+
+        results.sort(Comparator.comparing(Result::file));
+        System.out.printf("%-40s %8s %10s %10s %10s %10s %10s%n", "file", "lines", "front(ms)", "front(KB)", "codegen(ms)",
+                "asm(ms)", "total(ms)");
+        long lines = 0, cpuNanos = 0;
+        int failed = 0;
+        for (Result r : results) {
+            long total = r.frontEndNanos() + r.codeGenNanos() + r.assemblyNanos();
+            System.out.printf("%-40s %8d %10.3f %10s %10.3f %10.3f %10.3f%s%n", r.file(), r.lines(), r.frontEndNanos() / 1e6,
+                    r.frontEndBytes() < 0 ? "-" : r.frontEndBytes() / 1024, r.codeGenNanos() / 1e6, r.assemblyNanos() / 1e6, total / 1e6,
+                    r.ok() ? "" : "  FAILED");
+            if (!r.ok()) {
+                System.out.print(r.messages().indent(4));
+                failed++;
+            }
+            lines += r.lines();
+            cpuNanos += total;
+        }
+        double seconds = wallNanos / 1e9;
+        System.out.printf("%nCompiled %d files (%d failed), %d lines, on %d threads in %.3f ms wall time (%.3f ms of compilation).%n",
+                results.size(), failed, lines, threads, wallNanos / 1e6, cpuNanos / 1e6);
+        System.out.printf("Throughput: %.1f files/s, %.0f lines/s.%n", results.size() / seconds, lines / seconds);
+        if (failed > 0) System.exit(1);
+    }
+
+    private static void addSources(Path path, List<Path> files) throws IOException {
+        if (!Files.isDirectory(path)) {
+            files.add(path);
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            walk.filter(p -> p.toString().endsWith(".fool") && Files.isRegularFile(p)).forEach(files::add);
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // messages of each file are collected apart, so that those of files compiled at the same time are not mixed
+    private static Result compile(Path file) {
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(messages, true, StandardCharsets.UTF_8);
+        Compilation compilation = new Compilation(file, out, false);
+        boolean ok = false;
+        try {
+            ProgramImage image = compilation.run();
+            if (image != null) {
+                image.write(Paths.get(file + ".fvm"));
+                ok = true;
+            }
+        } catch (IOException e) {
+            out.println("I/O error: " + e.getMessage());
+        } catch (RuntimeException e) {
+            out.println("Internal compiler error: " + e);
+        }
+        return new Result(file, compilation.lines, ok, compilation.frontEndNanos, compilation.frontEndBytes,
+                compilation.optimizationNanos + compilation.codeGenNanos,
+                compilation.assemblyNanos, messages.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,74 @@
+package compiler;
+
+import visualsvm.ExecuteVM;
+import visualsvm.ProgramImage;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Execution speed of the SVM on some FOOL programs (default: quicksort.fool and bankloan.fool), compared between
+ * the dispatch of one step() per instruction, as the debugger does, the pre-decoded run loop of ExecuteVM.cpu(),
+ * and the same with hot functions compiled to JVM code (ExecuteVM.enableJit()).
+ * <p>
+ * Usage: java compiler.Benchmark [-seconds s] [file.fool...]
+ * Each program is run again and again for the given time per engine (default 2 s), after as much warm-up.
+ */
+public class Benchmark {
+
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+
+    private interface Engine {
+        void run(ExecuteVM vm);
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = 2;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-seconds") && i + 1 < args.length) seconds = Double.parseDouble(args[++i]);
+            else files.add(args[i]);
+        }
+        if (files.isEmpty()) files = List.of("quicksort.fool", "bankloan.fool");
+
+        Engine stepwise = vm -> {
+            while (vm.step()) ;
+        };
+        Engine predecoded = ExecuteVM::cpu;
+
+        System.out.printf("%-20s %18s %18s %8s %18s %8s%n", "program", "step() instr/s", "cpu() instr/s", "speedup",
+                "JIT instr/s", "speedup");
+        for (String file : files) {
+            ProgramImage image = new Compilation(Paths.get(file), NOWHERE, false).run();
+            if (image == null) {
+                System.out.println(file + ": compilation errors");
+                continue;
+            }
+            double before = measure(stepwise, image, false, seconds);
+            double after = measure(predecoded, image, false, seconds);
+            double compiled = measure(predecoded, image, true, seconds);
+            System.out.printf("%-20s %18.0f %18.0f %7.2fx %18.0f %7.2fx%n", file, before, after, after / before,
+                    compiled, compiled / before);
+        }
+    }
+
+    // instructions per second, after a warm-up of the same duration; resetting the VM between runs is not timed
+    private static double measure(Engine engine, ProgramImage image, boolean jit, double seconds) {
+        ExecuteVM vm = new ExecuteVM(image.code, image.data, NOWHERE, 0, false);
+        if (jit) vm.enableJit(image.labels);
+        long budget = (long) (seconds * 1e9);
+        for (long start = System.nanoTime(); System.nanoTime() - start < budget; vm.reset()) engine.run(vm);
+        long instructions = 0, elapsed = 0;
+        while (elapsed < budget) {
+            vm.reset();
+            long start = System.nanoTime();
+            engine.run(vm);
+            elapsed += System.nanoTime() - start;
+            instructions += vm.getInstructionCount();
+        }
+        return instructions * 1e9 / elapsed;
+    }
+}
@@ -3,452 +3,530 @@ package compiler;
 import compiler.AST.*;
 import compiler.exc.VoidException;
 import compiler.lib.BaseASTVisitor;
+import compiler.lib.Code;
+import compiler.lib.DecNode;
 import compiler.lib.Node;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static compiler.lib.FOOLlib.*;
 
-public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidException> {
+public class CodeGenerationASTVisitor extends BaseASTVisitor<Code, VoidException> {
 
-    private List<List<String>> dispatchTables = new ArrayList<>();
+    private final Map<String, List<String>> dispatchTables = new HashMap<>(); // method labels, by class
+    private final List<String> dispatchLabels = new ArrayList<>(); // of the tables in the data segment, by class
+    private Code dataCode = null;
+    private final List<Map<Integer, String>> functions = new ArrayList<>(); // labels by offset, for each nesting level
 
-    CodeGenerationASTVisitor() {
+    private final CompilerContext context;
+
+    CodeGenerationASTVisitor(CompilerContext c) {
+        context = c;
     }
 
-    CodeGenerationASTVisitor(boolean debug) {
+    CodeGenerationASTVisitor(CompilerContext c, boolean debug) {
         super(false, debug);
+        context = c;
     } //enables print for debugging
 
-    private String incrementHp(Integer amount) {
+    // jumps to label if cond evaluates to when, falls through otherwise; && and || are short-circuit
+    // and, like comparisons, never materialize their value; other conditions are compared with the constant
+    private Code branch(Node cond, String label, boolean when) {
+        if (cond instanceof NotNode c) return branch(c.node, label, !when);
+        if (cond instanceof AndNode c) return branch(c.left, c.right, false, label, when);
+        if (cond instanceof OrNode c) return branch(c.left, c.right, true, label, when);
+        if (cond instanceof EqualNode c) return compare(c.left, c.right, "beq", label, when);
+        if (cond instanceof LessEqualNode c) return compare(c.left, c.right, "bleq", label, when);
+        if (cond instanceof GreaterEqualNode c) return compare(c.right, c.left, "bleq", label, when);
+        if (cond instanceof IfNode c) { // e.g. an inlined predicate: each branch jumps on its own
+            String l1 = context.freshLabel();
+            String l2 = context.freshLabel();
+            return nlJoin(
+                    branch(c.cond, l1, true),
+                    branch(c.el, label, when),
+                    nlJoin("b " + l2),
+                    nlJoin(l1 + ":"),
+                    branch(c.th, label, when),
+                    nlJoin(l2 + ":")
+            );
+        }
         return nlJoin(
-                "push " + amount.toString(),
-                "lhp",
-                "add",
-                "shp"
+                visit(cond),
+                nlJoin("push " + (when ? 1 : 0)),
+                nlJoin("beq " + label)
         );
     }
 
-    private String pushHeap(Integer value) {
+    // left && right (decisive false) or left || right (decisive true): left alone decides when it is decisive
+    private Code branch(Node left, Node right, boolean decisive, String label, boolean when) {
+        if (when == decisive) return nlJoin(branch(left, label, when), branch(right, label, when));
+        String skip = context.freshLabel();
         return nlJoin(
-                "push " + value.toString(),
-                "lhp",
-                "sw",
-                incrementHp(1)
+                branch(left, skip, decisive),
+                branch(right, label, when),
+                nlJoin(skip + ":")
         );
     }
 
-    private String pushHeap(String value) {
+    // a single compare-and-branch; there is no negated branch, so jumping on false skips over a "b label"
+    private Code compare(Node left, Node right, String branch, String label, boolean when) {
+        if (when) return nlJoin(visit(left), visit(right), nlJoin(branch + " " + label));
+        String skip = context.freshLabel();
         return nlJoin(
-                "push " + value,
-                "lhp",
-                "sw",
-                incrementHp(1)
+                visit(left),
+                visit(right),
+                nlJoin(branch + " " + skip),
+                nlJoin("b " + label),
+                nlJoin(skip + ":")
         );
     }
 
-    private String saveMEMSIZE() {
+    // declarations of a new nesting level (offsets -2, -3, ...): the label of a function is known before
+    // its body is generated, so that calls to it (even recursive) can jump there directly; the labels of
+    // all methods are known before any code, for the direct calls (see ClassCallNode)
+    private Code declarations(List<DecNode> declist) {
+        Code code = null;
+        for (DecNode dec : declist)
+            if (dec instanceof ClassNode c) {
+                List<String> dispatchTable = new ArrayList<>();
+                if (c.superId != null) dispatchTable.addAll(dispatchTables.get(c.superId));
+                for (MethodNode method : c.methods) {
+                    method.label = context.freshFunLabel();
+                    if (method.offset < dispatchTable.size()) dispatchTable.set(method.offset, method.label);
+                    else dispatchTable.add(method.label);
+                }
+                dispatchTables.put(c.id, dispatchTable);
+            }
+        for (int i = 0; i < declist.size(); i++) {
+            if (declist.get(i) instanceof FunNode f)
+                functions.get(functions.size() - 1).put(-2 - i, f.label = context.freshFunLabel());
+            code = nlJoin(code, visit(declist.get(i)));
+        }
+        return code;
+    }
+
+    // body (or branch of it) of a function with the given parameters and declarations: calls in tail position
+    // reuse its activation record
+    private Code tail(Node exp, int parameters, int declarations) {
+        if (exp instanceof IfNode n) {
+            if (print) printNode(n);
+            String l1 = context.freshLabel();
+            String l2 = context.freshLabel();
+            return nlJoin(
+                    branch(n.cond, l1, true),
+                    tail(n.el, parameters, declarations),
+                    nlJoin("b " + l2),
+                    nlJoin(l1 + ":"),
+                    tail(n.th, parameters, declarations),
+                    nlJoin(l2 + ":")
+            );
+        }
+        // only functions, whose address is known (methods are jumped to with js, which would overwrite $ra),
+        // not declared in the current function (their Access Link would be the AR being overwritten);
+        // the new AR must fit in the current one (AL, parameters, RA and declarations)
+        if (!(exp instanceof CallNode n) || n.entry.offset >= 0 || n.entry.nl == n.nl
+                || !functions.get(n.entry.nl).containsKey(n.entry.offset)
+                || n.arglist.size() > parameters + declarations + 1) return visit(exp);
+        if (print) printNode(n, n.id);
+        int base = parameters - n.arglist.size(); // offset of the new AL: the Control Link stays where it is
+        Code argCode = null, getAR = null, moveCode = null;
+        for (int i = n.arglist.size() - 1; i >= 0; i--) argCode = nlJoin(argCode, visit(n.arglist.get(i)));
+        for (int i = 0; i < n.nl - n.entry.nl; i++) getAR = nlJoin(getAR, nlJoin("lw"));
+        for (int i = 0; i <= n.arglist.size(); i++) moveCode = nlJoin(moveCode, nlJoin("lfp", "push " + (base + i), "add", "sw"));
+        for (int i = 0; i < base + declarations + 1; i++) moveCode = nlJoin(moveCode, nlJoin("pop"));
         return nlJoin(
-                "lfp",
-                "lhp",
-                "sw",
-                incrementHp(1)
+                argCode, // generate code for argument expressions in reversed order
+                nlJoin("lfp"), getAR, // retrieve address of frame containing "id" declaration (Access Link)
+                nlJoin("lfp", "push -1", "add", "lw", "sra"), // return address of the current function, before overwriting it
+                moveCode, // move Access Link and arguments over the current AR, leave $sp at the new Access Link
+                nlJoin("b " + functions.get(n.entry.nl).get(n.entry.offset)) // jump without changing $ra
         );
     }
 
     @Override
-    public String visitNode(ProgLetInNode n) {
+    public Code visitNode(ProgLetInNode n) {
         if (print) printNode(n);
-        String declCode = null;
-        for (Node dec : n.declist) declCode = nlJoin(declCode, visit(dec));
+        functions.add(new HashMap<>());
+        Code declCode = declarations(n.declist);
+        functions.remove(functions.size() - 1);
         return nlJoin(
-                saveMEMSIZE(),
-
-                "push 0",
+                nlJoin("push 0"),
                 declCode, // generate code for declarations (allocation)
                 visit(n.exp),
-                "halt",
-                getCode()
+                nlJoin("halt"),
+                context.getCode(),
+                dataCode == null ? null : nlJoin(nlJoin("", ".data"), dataCode) // dispatch tables
         );
     }
 
     @Override
-    public String visitNode(ProgNode n) {
+    public Code visitNode(ProgNode n) {
         if (print) printNode(n);
         return nlJoin(
-                saveMEMSIZE(),
-
                 visit(n.exp),
-                "halt"
+                nlJoin("halt")
         );
     }
 
     @Override
-    public String visitNode(FunNode n) {
+    public Code visitNode(FunNode n) {
         if (print) printNode(n, n.id);
-        String declCode = null, popDecl = null, popParl = null;
-        for (Node dec : n.declist) {
-            declCode = nlJoin(declCode, visit(dec));
-            popDecl = nlJoin(popDecl, "pop");
-        }
-        for (int i = 0; i < n.parlist.size(); i++) popParl = nlJoin(popParl, "pop");
-        String funl = freshFunLabel();
-        putCode(
+        Code popDecl = null, popParl = null;
+        for (Node dec : n.declist) popDecl = nlJoin(popDecl, nlJoin("pop"));
+        for (int i = 0; i < n.parlist.size(); i++) popParl = nlJoin(popParl, nlJoin("pop"));
+        functions.add(new HashMap<>());
+        Code declCode = declarations(n.declist);
+        Code body = tail(n.exp, n.parlist.size(), n.declist.size());
+        functions.remove(functions.size() - 1);
+        context.putCode(
                 nlJoin(
-                        funl + ":",
-                        "cfp", // set $fp to $sp value
-                        "lra", // load $ra value
+                        nlJoin(n.label + ":"),
+                        nlJoin("cfp"), // set $fp to $sp value
+                        nlJoin("lra"), // load $ra value
                         declCode, // generate code for local declarations (they use the new $fp!!!)
-                        visit(n.exp), // generate code for function body expression
-                        "stm", // set $tm to popped value (function result)
+                        body, // generate code for function body expression (calls in tail position reuse the AR)
+                        nlJoin("stm"), // set $tm to popped value (function result)
                         popDecl, // remove local declarations from stack
-                        "sra", // set $ra to popped value
-                        "pop", // remove Access Link from stack
+                        nlJoin("sra"), // set $ra to popped value
+                        nlJoin("pop"), // remove Access Link from stack
                         popParl, // remove parameters from stack
-                        "sfp", // set $fp to popped value (Control Link)
-                        "ltm", // load $tm value (function result)
-                        "lra", // load $ra value
-                        "js"  // jump to to popped address
+                        nlJoin("sfp"), // set $fp to popped value (Control Link)
+                        nlJoin("ltm"), // load $tm value (function result)
+                        nlJoin("lra"), // load $ra value
+                        nlJoin("js")  // jump to to popped address
                 )
         );
-        return "push " + funl;
+        return nlJoin("push " + n.label);
     }
 
     @Override
-    public String visitNode(VarNode n) {
+    public Code visitNode(VarNode n) {
         if (print) printNode(n, n.id);
         return visit(n.exp);
     }
 
     @Override
-    public String visitNode(PrintNode n) {
+    public Code visitNode(PrintNode n) {
         if (print) printNode(n);
         return nlJoin(
                 visit(n.exp),
-                "print"
+                nlJoin("print")
         );
     }
 
     @Override
-    public String visitNode(IfNode n) {
+    public Code visitNode(IfNode n) {
         if (print) printNode(n);
-        String l1 = freshLabel();
-        String l2 = freshLabel();
+        String l1 = context.freshLabel();
+        String l2 = context.freshLabel();
         return nlJoin(
-                visit(n.cond),
-                "push 1",
-                "beq " + l1,
+                branch(n.cond, l1, true),
                 visit(n.el),
-                "b " + l2,
-                l1 + ":",
+                nlJoin("b " + l2),
+                nlJoin(l1 + ":"),
                 visit(n.th),
-                l2 + ":"
+                nlJoin(l2 + ":")
         );
     }
 
     @Override
-    public String visitNode(EqualNode n) {
+    public Code visitNode(EqualNode n) {
         if (print) printNode(n);
-        String l1 = freshLabel();
-        String l2 = freshLabel();
+        String l1 = context.freshLabel();
+        String l2 = context.freshLabel();
         return nlJoin(
                 visit(n.left),
                 visit(n.right),
-                "beq " + l1,
-                "push 0",
-                "b " + l2,
-                l1 + ":",
-                "push 1",
-                l2 + ":"
+                nlJoin("beq " + l1),
+                nlJoin("push 0"),
+                nlJoin("b " + l2),
+                nlJoin(l1 + ":"),
+                nlJoin("push 1"),
+                nlJoin(l2 + ":")
         );
     }
 
     @Override
-    public String visitNode(LessEqualNode n) {
+    public Code visitNode(LessEqualNode n) {
         if (print) printNode(n);
-        String l1 = freshLabel();
-        String l2 = freshLabel();
+        String l1 = context.freshLabel();
+        String l2 = context.freshLabel();
         return nlJoin(
                 visit(n.left),
                 visit(n.right),
-                "bleq " + l1,
-                "push 0",
-                "b " + l2,
-                l1 + ":",
-                "push 1",
-                l2 + ":"
+                nlJoin("bleq " + l1),
+                nlJoin("push 0"),
+                nlJoin("b " + l2),
+                nlJoin(l1 + ":"),
+                nlJoin("push 1"),
+                nlJoin(l2 + ":")
         );
     }
 
     @Override
-    public String visitNode(GreaterEqualNode n) {
+    public Code visitNode(GreaterEqualNode n) {
         if (print) printNode(n);
-        String l1 = freshLabel();
-        String l2 = freshLabel();
+        String l1 = context.freshLabel();
+        String l2 = context.freshLabel();
         return nlJoin(
                 visit(n.right),
                 visit(n.left),
-                "bleq " + l1,
-                "push 0",
-                "b " + l2,
-                l1 + ":",
-                "push 1",
-                l2 + ":"
+                nlJoin("bleq " + l1),
+                nlJoin("push 0"),
+                nlJoin("b " + l2),
+                nlJoin(l1 + ":"),
+                nlJoin("push 1"),
+                nlJoin(l2 + ":")
         );
     }
 
     @Override
-    public String visitNode(TimesNode n) {
+    public Code visitNode(TimesNode n) {
         if (print) printNode(n);
         return nlJoin(
                 visit(n.left),
                 visit(n.right),
-                "mult"
+                nlJoin("mult")
         );
     }
 
     @Override
-    public String visitNode(DivNode n) {
+    public Code visitNode(DivNode n) {
         if (print) printNode(n);
         return nlJoin(
                 visit(n.left),
                 visit(n.right),
-                "div"
+                nlJoin("div")
         );
     }
 
     @Override
-    public String visitNode(PlusNode n) {
+    public Code visitNode(PlusNode n) {
         if (print) printNode(n);
         return nlJoin(
                 visit(n.left),
                 visit(n.right),
-                "add"
+                nlJoin("add")
         );
     }
 
     @Override
-    public String visitNode(MinusNode n) {
+    public Code visitNode(MinusNode n) {
         if (print) printNode(n);
         return nlJoin(
                 visit(n.left),
                 visit(n.right),
-                "sub"
+                nlJoin("sub")
         );
     }
 
     @Override
-    public String visitNode(AndNode n) {
+    public Code visitNode(AndNode n) {
         if (print) printNode(n);
-        String l1 = freshLabel();
-        String l2 = freshLabel();
-        return nlJoin(
+        String l1 = context.freshLabel();
+        String l2 = context.freshLabel();
+        return nlJoin( // right evaluated only if left is true
                 visit(n.left),
+                nlJoin("push 1"),
+                nlJoin("beq " + l1),
+                nlJoin("push 0"),
+                nlJoin("b " + l2),
+                nlJoin(l1 + ":"),
                 visit(n.right),
-                "add",
-                "push 2",
-                "beq " + l1,
-                "push 0",
-                "b " + l2,
-                l1 + ":",
-                "push 1",
-                l2 + ":"
+                nlJoin(l2 + ":")
         );
     }
 
     @Override
-    public String visitNode(OrNode n) {
+    public Code visitNode(OrNode n) {
         if (print) printNode(n);
-        String l1 = freshLabel();
-        String l2 = freshLabel();
-        return nlJoin(
+        String l1 = context.freshLabel();
+        String l2 = context.freshLabel();
+        return nlJoin( // right evaluated only if left is false
                 visit(n.left),
+                nlJoin("push 1"),
+                nlJoin("beq " + l1),
                 visit(n.right),
-                "add",
-                "push 0",
-                "beq " + l1,
-                "push 1",
-                "b " + l2,
-                l1 + ":",
-                "push 0",
-                l2 + ":"
+                nlJoin("b " + l2),
+                nlJoin(l1 + ":"),
+                nlJoin("push 1"),
+                nlJoin(l2 + ":")
         );
     }
 
     @Override
-    public String visitNode(NotNode n) {
+    public Code visitNode(NotNode n) {
         if (print) printNode(n);
         return nlJoin(
-                "push 1",
+                nlJoin("push 1"),
                 visit(n.node),
-                "sub"
+                nlJoin("sub")
         );
     }
 
     @Override
-    public String visitNode(CallNode n) {
+    public Code visitNode(CallNode n) {
         if (print) printNode(n, n.id);
-        String argCode = null, getAR = null;
+        Code argCode = null, getAR = null;
         for (int i = n.arglist.size() - 1; i >= 0; i--) argCode = nlJoin(argCode, visit(n.arglist.get(i)));
-        for (int i = 0; i < n.nl - n.entry.nl; i++) getAR = nlJoin(getAR, "lw");
-        String code = nlJoin("lfp", // load Control Link (pointer to frame of function "id" caller)
+        for (int i = 0; i < n.nl - n.entry.nl; i++) getAR = nlJoin(getAR, nlJoin("lw"));
+        Code code = nlJoin(nlJoin("lfp"), // load Control Link (pointer to frame of function "id" caller)
                 argCode, // generate code for argument expressions in reversed order
-                "lfp", getAR, // retrieve address of frame containing "id" declaration
+                nlJoin("lfp"), getAR, // retrieve address of frame containing "id" declaration
                 // by following the static chain (of Access Links)
-                "stm", // set $tm to popped value (with the aim of duplicating top of stack)
-                "ltm", // load Access Link (pointer to frame of function "id" declaration)
-                "ltm" // duplicate top of stack
+                nlJoin("stm"), // set $tm to popped value (with the aim of duplicating top of stack)
+                nlJoin("ltm"), // load Access Link (pointer to frame of function "id" declaration)
+                nlJoin("ltm") // duplicate top of stack
         );
         if (n.entry.offset >= 0) { // method call from a method
-            code = nlJoin(code, "lw");
+            code = nlJoin(code, nlJoin("lw"));
         }
         code = nlJoin(code,
-                "push " + n.entry.offset, "add", // compute address of "id" declaration
-                "lw" // load address of "id" function
+                nlJoin("push " + n.entry.offset, "add"), // compute address of "id" declaration
+                nlJoin("lw") // load address of "id" function
         );
         code = nlJoin(code,
-                "js"  // jump to popped address (saving address of subsequent instruction in $ra)
+                nlJoin("js")  // jump to popped address (saving address of subsequent instruction in $ra)
         );
         return code;
     }
 
     @Override
-    public String visitNode(IdNode n) {
+    public Code visitNode(IdNode n) {
         if (print) printNode(n, n.id);
-        String getAR = null;
-        for (int i = 0; i < n.nl - n.entry.nl; i++) getAR = nlJoin(getAR, "lw");
+        Code getAR = null;
+        for (int i = 0; i < n.nl - n.entry.nl; i++) getAR = nlJoin(getAR, nlJoin("lw"));
         return nlJoin(
-                "lfp", getAR, // retrieve address of frame containing "id" declaration
+                nlJoin("lfp"), getAR, // retrieve address of frame containing "id" declaration
                 // by following the static chain (of Access Links)
-                "push " + n.entry.offset, "add", // compute address of "id" declaration
-                "lw" // load value of "id" variable
+                nlJoin("push " + n.entry.offset, "add"), // compute address of "id" declaration
+                nlJoin("lw") // load value of "id" variable
         );
     }
 
     @Override
-    public String visitNode(BoolNode n) {
+    public Code visitNode(BoolNode n) {
         if (print) printNode(n, n.val.toString());
-        return "push " + (n.val ? 1 : 0);
+        return nlJoin("push " + (n.val ? 1 : 0));
     }
 
     @Override
-    public String visitNode(IntNode n) {
+    public Code visitNode(IntNode n) {
         if (print) printNode(n, n.val.toString());
-        return "push " + n.val;
+        return nlJoin("push " + n.val);
     }
 
     // OBJECT-ORIENTED
 
     @Override
-    public String visitNode(ClassNode n) {
-        List<String> dispatchTable = new ArrayList<>();
-        if (n.superEntry != null) {
-            dispatchTable.addAll(dispatchTables.get(-n.superEntry.offset - 2));
-        }
-        for (int i = 0; i < n.methods.size(); i++) {
-            visitNode(n.methods.get(i));
-            int offset = n.methods.get(i).offset;
-            if (offset < dispatchTable.size()) {
-                dispatchTable.set(offset, n.methods.get(i).label);
-            } else {
-                dispatchTable.add(n.methods.get(i).label);
-            }
-        }
-        dispatchTables.add(dispatchTable);
-        String code = "lhp";
+    public Code visitNode(ClassNode n) {
+        functions.add(new HashMap<>()); // nesting level of the class (fields only), methods are one more
+        for (MethodNode method : n.methods) visitNode(method);
+        functions.remove(functions.size() - 1);
+        List<String> dispatchTable = dispatchTables.get(n.id); // built by declarations()
+        String label = "dispatch" + dispatchLabels.size();
+        dispatchLabels.add(label);
+        dataCode = nlJoin(dataCode, nlJoin(label + ":"));
         for (String s : dispatchTable) {
-            code = nlJoin(code, pushHeap(s));
+            dataCode = nlJoin(dataCode, nlJoin(".word " + s)); // method address, resolved by the assembler
         }
-        return code;
+        return nlJoin("push " + label); // dispatch pointer, in the class declaration
     }
 
     @Override
-    public String visitNode(MethodNode n) {
+    public Code visitNode(MethodNode n) {
         if (print) printNode(n);
-        n.label = freshFunLabel();
-        String declCode = null, popDecl = null, popParl = null;
-        for (Node dec : n.declist) {
-            declCode = nlJoin(declCode, visit(dec));
-            popDecl = nlJoin(popDecl, "pop");
-        }
-        for (int i = 0; i < n.parlist.size(); i++) popParl = nlJoin(popParl, "pop");
-        putCode(
+        Code popDecl = null, popParl = null;
+        for (Node dec : n.declist) popDecl = nlJoin(popDecl, nlJoin("pop"));
+        for (int i = 0; i < n.parlist.size(); i++) popParl = nlJoin(popParl, nlJoin("pop"));
+        functions.add(new HashMap<>());
+        Code declCode = declarations(n.declist);
+        Code body = tail(n.exp, n.parlist.size(), n.declist.size());
+        functions.remove(functions.size() - 1);
+        context.putCode(
                 nlJoin(
-                        n.label + ":",
-                        "cfp", // set $fp to $sp value
-                        "lra", // load $ra value
+                        nlJoin(n.label + ":"),
+                        nlJoin("cfp"), // set $fp to $sp value
+                        nlJoin("lra"), // load $ra value
                         declCode, // generate code for local declarations (they use the new $fp!!!)
-                        visit(n.exp), // generate code for function body expression
-                        "stm", // set $tm to popped value (function result)
+                        body, // generate code for function body expression (calls in tail position reuse the AR)
+                        nlJoin("stm"), // set $tm to popped value (function result)
                         popDecl, // remove local declarations from stack
-                        "sra", // set $ra to popped value
-                        "pop", // remove Access Link from stack
+                        nlJoin("sra"), // set $ra to popped value
+                        nlJoin("pop"), // remove Access Link from stack
                         popParl, // remove parameters from stack
-                        "sfp", // set $fp to popped value (Control Link)
-                        "ltm", // load $tm value (function result)
-                        "lra", // load $ra value
-                        "js"  // jump to to popped address
+                        nlJoin("sfp"), // set $fp to popped value (Control Link)
+                        nlJoin("ltm"), // load $tm value (function result)
+                        nlJoin("lra"), // load $ra value
+                        nlJoin("js")  // jump to to popped address
                 )
         );
         return null;
     }
 
     @Override
-    public String visitNode(EmptyNode n) {
-        return "push -1";
+    public Code visitNode(EmptyNode n) {
+        return nlJoin("push -1");
     }
 
     @Override
-    public String visitNode(ClassCallNode n) {
+    public Code visitNode(ClassCallNode n) {
         if (print) printNode(n);
-        String argCode = null, getAR = null;
+        Code argCode = null, getAR = null;
         for (int i = n.arglist.size() - 1; i >= 0; i--) argCode = nlJoin(argCode, visit(n.arglist.get(i)));
-        for (int i = 0; i < n.nl - n.entry.nl; i++) getAR = nlJoin(getAR, "lw");
+        for (int i = 0; i < n.nl - n.entry.nl; i++) getAR = nlJoin(getAR, nlJoin("lw"));
+        if (n.direct) return nlJoin(
+                nlJoin("lfp"), // load Control Link
+                argCode, // generate code for argument expressions in reversed order
+                nlJoin("lfp"), getAR, nlJoin("push " + n.entry.offset, "add", "lw"), // object pointer (Access Link)
+                nlJoin("stm", "ltm", "ltm", "lw", "pop"), // load the dispatch pointer anyway: faults on null as a virtual call
+                nlJoin("push " + dispatchTables.get(((RefTypeNode) n.entry.type).id).get(n.methodEntry.offset)),
+                nlJoin("js") // the only method the call can reach
+        );
         return nlJoin(
-                "lfp", // load Control Link (pointer to frame of function "id" caller)
+                nlJoin("lfp"), // load Control Link (pointer to frame of function "id" caller)
                 argCode, // generate code for argument expressions in reversed order
-                "lfp", getAR, // retrieve address of frame containing "id" declaration
+                nlJoin("lfp"), getAR, // retrieve address of frame containing "id" declaration
                 // by following the static chain (of Access Links)
 
-                "push " + n.entry.offset, "add", // calculate position of object pointer in AR
-                "lw", // load object pointer
+                nlJoin("push " + n.entry.offset, "add"), // calculate position of object pointer in AR
+                nlJoin("lw"), // load object pointer
 
-                "stm", // set $tm to popped value (with the aim of duplicating top of stack)
-                "ltm", // load Access Link (pointer to frame of function "id" object)
-                "ltm", // duplicate top of stack
+                nlJoin("stm"), // set $tm to popped value (with the aim of duplicating top of stack)
+                nlJoin("ltm"), // load Access Link (pointer to frame of function "id" object)
+                nlJoin("ltm"), // duplicate top of stack
 
-                "lw", // load address of dispatch table
+                nlJoin("lw"), // load address of dispatch table
 
-                "push " + n.methodEntry.offset, "add", // compute address of method
-                "lw", // load address of method from dispatch table
-                "js"  // jump to popped address (saving address of subsequent instruction in $ra)
+                nlJoin("push " + n.methodEntry.offset, "add"), // compute address of method
+                nlJoin("lw"), // load address of method from dispatch table
+                nlJoin("js")  // jump to popped address (saving address of subsequent instruction in $ra)
         );
     }
 
     @Override
-    public String visitNode(NewNode n) {
+    public Code visitNode(FieldAccessNode n) {
         if (print) printNode(n);
-        String code = "";
-        for (int i = n.arglist.size() - 1; i >= 0; i--) {
-            code = nlJoin(code,
-                    visit(n.arglist.get(i)),
-                    "lhp",
-                    "sw", // mem[hp] = sw
-                    incrementHp(1)
-            );
-        }
-        code = nlJoin(code,
-                "push 0",
-                "lw", // load value of MEMSIZE into stack
-
-                "push " + n.entry.offset, "add", // dispatch pointer
-                "lw",
-                "lhp",
-                "sw",
-                "lhp",
-                incrementHp(1)
+        Code getAR = null;
+        for (int i = 0; i < n.nl - n.entry.nl; i++) getAR = nlJoin(getAR, nlJoin("lw"));
+        return nlJoin(
+                nlJoin("lfp"), getAR, nlJoin("push " + n.entry.offset, "add", "lw"), // object pointer
+                nlJoin("push " + n.fieldEntry.offset, "add", "lw") // field, at its offset from the object pointer
+        );
+    }
+
+    @Override
+    public Code visitNode(NewNode n) {
+        if (print) printNode(n);
+        Code argCode = null;
+        for (int i = n.arglist.size() - 1; i >= 0; i--) argCode = nlJoin(argCode, visit(n.arglist.get(i)));
+        return nlJoin(
+                argCode, // fields stay on the stack (roots for the garbage collector) until the object is allocated
+                nlJoin("push " + dispatchLabels.get(-n.entry.offset - 2)), // dispatch pointer, in the data segment
+                nlJoin("new " + n.arglist.size()) // allocate object: pop dispatch pointer and fields, push object pointer
         );
-        return code;
     }
 }
\ No newline at end of file
@@ -0,0 +1,218 @@
+package compiler;
+
+import compiler.exc.IncomplException;
+import compiler.exc.TypeException;
+import compiler.lib.Code;
+import compiler.lib.Node;
+import compiler.lib.TypeNode;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.tree.ParseTree;
+import registervm.RVMAssembler;
+import visualsvm.ProgramImage;
+import visualsvm.SVMAssembler;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Compilation of one FOOL source file, with a CompilerContext of its own: instances can run concurrently.
+ * Messages go to the given stream; when verbose, the phases and the trees are printed as well.
+ */
+public class Compilation {
+
+    public final Path file;
+    private final PrintStream out;
+    private final boolean verbose;
+    private final CompilerContext context;
+
+    private Node ast;
+    private Map<String, VirtualTable> classTable; // virtual tables of the classes, from the symbol table
+    public int lines;
+    public int frontEndErrors;
+    public int devirtualizedCalls, inlinedCalls, removedNodes; // by optimize()
+    public int assemblyErrors;
+    public long frontEndNanos, optimizationNanos, codeGenNanos, assemblyNanos; // durations of the phases run so far
+    public long frontEndBytes = -1; // allocated by the front end, -1 if the JVM does not tell
+
+    public Compilation(Path file, PrintStream out, boolean verbose) {
+        this.file = file;
+        this.out = out;
+        this.verbose = verbose;
+        this.context = new CompilerContext(out);
+    }
+
+    /**
+     * Lexing, parsing, AST generation, symbol table and type checking; true if there were no errors.
+     */
+    public boolean frontEnd() throws IOException {
+        long start = System.nanoTime();
+        long startBytes = allocatedBytes();
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8); // malformed input replaced, as CharStreams does
+        lines = (int) text.lines().count();
+        FOOLLexer lexer = new FOOLLexer(CharStreams.fromString(text, file.toString()));
+        lexer.log = out;
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        FOOLParser parser = new FOOLParser(tokens);
+        if (!verbose) { // syntax errors reported with the other messages of this file, instead of on System.err
+            parser.removeErrorListeners();
+            parser.addErrorListener(new BaseErrorListener() {
+                @Override
+                public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+                                        String msg, RecognitionException e) {
+                    out.println("line " + line + ":" + charPositionInLine + " " + msg);
+                }
+            });
+        }
+
+        if (verbose) out.println("Generating ST via lexer and parser.");
+        ParseTree st = parser.prog();
+        if (verbose) out.println("You had " + lexer.lexicalErrors + " lexical errors and " +
+                parser.getNumberOfSyntaxErrors() + " syntax errors.\n");
+
+        if (verbose) out.println("Generating AST.");
+        ASTGenerationSTVisitor visitor = new ASTGenerationSTVisitor(context, verbose); // use true to visualize the ST
+        ast = visitor.visit(st);
+        if (verbose) out.println();
+
+        if (verbose) out.println("Enriching AST via symbol table.");
+        SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor(context);
+        symtableVisitor.visit(ast);
+        classTable = symtableVisitor.classTable;
+        if (verbose) out.println("You had " + symtableVisitor.stErrors + " symbol table errors.\n");
+
+        if (verbose) {
+            out.println("Visualizing Enriched AST.");
+            new PrintEASTVisitor().visit(ast);
+            out.println();
+        }
+
+        if (verbose) out.println("Checking Types.");
+        try {
+            TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor(context, verbose);
+            TypeNode mainType = typeCheckVisitor.visit(ast);
+            if (verbose) {
+                out.print("Type of main program expression is: ");
+                new PrintEASTVisitor().visit(mainType);
+            }
+        } catch (IncomplException e) {
+            if (verbose)
+                out.println("Could not determine main program expression type due to errors detected before type checking.");
+        } catch (TypeException e) {
+            context.typeErrors++;
+            out.println("Type checking error in main program expression: " + e.text);
+        }
+        if (verbose) out.println("You had " + context.typeErrors + " type checking errors.\n");
+
+        frontEndErrors = lexer.lexicalErrors + parser.getNumberOfSyntaxErrors() + symtableVisitor.stErrors + context.typeErrors;
+        if (verbose) out.println("You had a total of " + frontEndErrors + " front-end errors.\n");
+        frontEndNanos = System.nanoTime() - start;
+        if (startBytes >= 0) frontEndBytes = allocatedBytes() - startBytes;
+        return frontEndErrors == 0;
+    }
+
+    // bytes allocated so far by the current thread (a compilation runs on a single thread), -1 if not supported
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+            return bean.getCurrentThreadAllocatedBytes();
+        return -1;
+    }
+
+    /**
+     * Optimizations on the enriched AST (devirtualization, inlining, then constant folding, also of the inlined
+     * bodies), to be called after a successful front end; returns the number of nodes removed by folding.
+     */
+    public int optimize() {
+        long start = System.nanoTime();
+        if (verbose) out.println("Devirtualizing method calls.");
+        DevirtualizationASTVisitor devirtualization = new DevirtualizationASTVisitor(classTable, context.typeRels);
+        devirtualization.visit(ast);
+        devirtualizedCalls = devirtualization.devirtualizedCalls;
+        if (verbose) out.println("Devirtualized " + devirtualizedCalls + " calls.\n");
+
+        if (verbose) out.println("Inlining functions.");
+        InliningASTVisitor inlining = new InliningASTVisitor();
+        ast = inlining.visit(ast);
+        inlinedCalls = inlining.inlinedCalls;
+        if (verbose) out.println("Inlined " + inlinedCalls + " calls.\n");
+
+        if (verbose) out.println("Folding constants.");
+        ConstantFoldingASTVisitor folding = new ConstantFoldingASTVisitor();
+        ast = folding.fold(ast);
+        removedNodes = folding.removedNodes;
+        if (verbose) out.println("Removed " + removedNodes + " nodes.\n");
+        optimizationNanos = System.nanoTime() - start;
+        return removedNodes;
+    }
+
+    /**
+     * Code generation, to be called after a successful front end (and optimize()).
+     */
+    public Code generateCode() {
+        long start = System.nanoTime();
+        if (verbose) out.println("Generating code.");
+        Code code = new CodeGenerationASTVisitor(context).visit(ast);
+        codeGenNanos = System.nanoTime() - start;
+        return code;
+    }
+
+    /**
+     * Code generation for the register VM (registervm.ExecuteRVM), to be called after a successful front end;
+     * independent of generateCode(), with labels of its own.
+     */
+    public Code generateRegisterCode() {
+        long start = System.nanoTime();
+        if (verbose) out.println("Generating register VM code.");
+        Code code = new RegisterCodeGenerationASTVisitor(new CompilerContext(out)).visit(ast);
+        codeGenNanos = System.nanoTime() - start;
+        return code;
+    }
+
+    /**
+     * Assembles code generated by generateRegisterCode(); null if there were assembly errors.
+     */
+    public ProgramImage assembleRegisterCode(Code code) {
+        long start = System.nanoTime();
+        if (verbose) out.println("Assembling register VM code.");
+        RVMAssembler assembler = new RVMAssembler(out);
+        code.forEachLine(assembler::line);
+        ProgramImage image = assembler.assemble();
+        assemblyErrors = assembler.errors;
+        if (verbose) out.println("You had: " + assemblyErrors + " assembly errors.\n");
+        assemblyNanos = System.nanoTime() - start;
+        return assemblyErrors == 0 ? image : null;
+    }
+
+    /**
+     * Assembles the generated code; null if there were assembly errors.
+     */
+    public ProgramImage assemble(Code code) {
+        long start = System.nanoTime();
+        if (verbose) out.println("Assembling generated code.");
+        SVMAssembler assembler = new SVMAssembler(out);
+        code.forEachLine(assembler::line);
+        ProgramImage image = assembler.assemble();
+        assemblyErrors = assembler.errors;
+        if (verbose) out.println("You had: " + assemblyErrors + " assembly errors.\n");
+        assemblyNanos = System.nanoTime() - start;
+        return assemblyErrors == 0 ? image : null;
+    }
+
+    /**
+     * Whole pipeline; null if there were errors.
+     */
+    public ProgramImage run() throws IOException {
+        if (!frontEnd()) return null;
+        optimize();
+        return assemble(generateCode());
+    }
+}
@@ -0,0 +1,52 @@
+package compiler;
+
+import compiler.lib.Code;
+
+import java.io.PrintStream;
+
+import static compiler.lib.FOOLlib.nlJoin;
+
+/**
+ * State of a single compilation: fresh label counters, code of functions and methods,
+ * type error count, class hierarchy and identifiers. Each compiled program gets its own context,
+ * so that many programs can be compiled in the same JVM, also concurrently.
+ */
+public class CompilerContext {
+
+    final PrintStream log; // error messages of the front end
+
+    private int labCount = 0;
+    private int funlabCount = 0;
+    private Code funCode = null;
+    int typeErrors = 0;
+    final TypeRels typeRels = new TypeRels();
+    final Symbols symbols = new Symbols();
+
+    public CompilerContext() {
+        this(System.out);
+    }
+
+    public CompilerContext(PrintStream log) {
+        this.log = log;
+    }
+
+    public String freshLabel() {
+        return "label" + (labCount++);
+    }
+
+    public String freshFunLabel() {
+        return "function" + (funlabCount++);
+    }
+
+    public void putCode(Code c) {
+        funCode = nlJoin(funCode, nlJoin(""), c); //linea vuota di separazione prima di codice funzione
+    }
+
+    public Code getCode() {
+        return funCode;
+    }
+
+    public int getTypeErrors() {
+        return typeErrors;
+    }
+}
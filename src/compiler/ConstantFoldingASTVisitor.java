@@ -0,0 +1,169 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.Node;
+import compiler.lib.Visitable;
+
+/**
+ * Optimization pass between type checking and code generation: returns the enriched AST with operations on
+ * constants folded (arithmetic, comparisons, boolean operators), the dead branch of ifs with a constant
+ * condition removed and identities simplified (x*1, x+0, x-0, x/1, !!b, true&&b, false||b, false&&b,
+ * true||b, and x*0, b&&false, b||true when x, b have no effects). Nodes are rebuilt only where something
+ * changed; division by zero is left to run time, as are the operands with effects (calls, prints, new,
+ * divisions) that the backends would evaluate: && and || are short-circuit, so only their left operand counts.
+ */
+public class ConstantFoldingASTVisitor extends RewritingASTVisitor {
+
+    private int visited = 0; // nodes visited, i.e. of the input tree (type nodes excluded)
+    int removedNodes = 0;
+
+    ConstantFoldingASTVisitor() {
+    }
+
+    ConstantFoldingASTVisitor(boolean debug) {
+        super(debug);
+    } // enables print for debugging
+
+    /**
+     * Folds the whole tree; removedNodes is then the difference in size between the input and the result.
+     */
+    Node fold(Node ast) {
+        Node result = visit(ast);
+        ConstantFoldingASTVisitor counter = new ConstantFoldingASTVisitor(); // nothing left to fold: only counts
+        counter.visit(result);
+        removedNodes = visited - counter.visited;
+        return result;
+    }
+
+    @Override
+    public Node visit(Visitable v, String mark) {
+        if (v instanceof Node) visited++;
+        return super.visit(v, mark);
+    }
+
+    private static Integer intValue(Node n) {
+        return n instanceof IntNode i ? i.val : null;
+    }
+
+    private static Boolean boolValue(Node n) {
+        return n instanceof BoolNode b ? b.val : null;
+    }
+
+    @Override
+    public Node visitNode(IfNode n) {
+        if (print) printNode(n);
+        Node cond = visit(n.cond);
+        Node th = visit(n.th);
+        Node el = visit(n.el);
+        Boolean c = boolValue(cond);
+        if (c != null) return c ? th : el; // dead branch removed
+        if (cond instanceof NotNode not) return at(new IfNode(not.node, el, th), n); // if (!c) a else b
+        return cond == n.cond && th == n.th && el == n.el ? n : at(new IfNode(cond, th, el), n);
+    }
+
+    @Override
+    public Node visitNode(EqualNode n) {
+        if (print) printNode(n);
+        Node left = visit(n.left), right = visit(n.right);
+        if (intValue(left) != null && intValue(right) != null)
+            return at(new BoolNode(intValue(left).equals(intValue(right))), n);
+        if (boolValue(left) != null && boolValue(right) != null)
+            return at(new BoolNode(boolValue(left) == boolValue(right)), n);
+        return left == n.left && right == n.right ? n : at(new EqualNode(left, right), n);
+    }
+
+    @Override
+    public Node visitNode(LessEqualNode n) {
+        if (print) printNode(n);
+        Node left = visit(n.left), right = visit(n.right);
+        if (intValue(left) != null && intValue(right) != null) return at(new BoolNode(intValue(left) <= intValue(right)), n);
+        return left == n.left && right == n.right ? n : at(new LessEqualNode(left, right), n);
+    }
+
+    @Override
+    public Node visitNode(GreaterEqualNode n) {
+        if (print) printNode(n);
+        Node left = visit(n.left), right = visit(n.right);
+        if (intValue(left) != null && intValue(right) != null) return at(new BoolNode(intValue(left) >= intValue(right)), n);
+        return left == n.left && right == n.right ? n : at(new GreaterEqualNode(left, right), n);
+    }
+
+    @Override
+    public Node visitNode(TimesNode n) {
+        if (print) printNode(n);
+        Node left = visit(n.left), right = visit(n.right);
+        Integer l = intValue(left), r = intValue(right);
+        if (l != null && r != null) return at(new IntNode(l * r), n);
+        if (Integer.valueOf(1).equals(l)) return right;
+        if (Integer.valueOf(1).equals(r)) return left;
+        if (Integer.valueOf(0).equals(l) && pure(right) || Integer.valueOf(0).equals(r) && pure(left))
+            return at(new IntNode(0), n);
+        return left == n.left && right == n.right ? n : at(new TimesNode(left, right), n);
+    }
+
+    @Override
+    public Node visitNode(DivNode n) {
+        if (print) printNode(n);
+        Node left = visit(n.left), right = visit(n.right);
+        Integer l = intValue(left), r = intValue(right);
+        if (l != null && r != null && r != 0) return at(new IntNode(l / r), n);
+        if (Integer.valueOf(1).equals(r)) return left;
+        return left == n.left && right == n.right ? n : at(new DivNode(left, right), n);
+    }
+
+    @Override
+    public Node visitNode(PlusNode n) {
+        if (print) printNode(n);
+        Node left = visit(n.left), right = visit(n.right);
+        Integer l = intValue(left), r = intValue(right);
+        if (l != null && r != null) return at(new IntNode(l + r), n);
+        if (Integer.valueOf(0).equals(l)) return right;
+        if (Integer.valueOf(0).equals(r)) return left;
+        return left == n.left && right == n.right ? n : at(new PlusNode(left, right), n);
+    }
+
+    @Override
+    public Node visitNode(MinusNode n) {
+        if (print) printNode(n);
+        Node left = visit(n.left), right = visit(n.right);
+        Integer l = intValue(left), r = intValue(right);
+        if (l != null && r != null) return at(new IntNode(l - r), n);
+        if (Integer.valueOf(0).equals(r)) return left;
+        return left == n.left && right == n.right ? n : at(new MinusNode(left, right), n);
+    }
+
+    @Override
+    public Node visitNode(AndNode n) {
+        if (print) printNode(n);
+        Node left = visit(n.left), right = visit(n.right);
+        Boolean l = boolValue(left), r = boolValue(right);
+        if (l != null && r != null) return at(new BoolNode(l && r), n);
+        if (Boolean.TRUE.equals(l)) return right;
+        if (Boolean.TRUE.equals(r)) return left;
+        if (Boolean.FALSE.equals(l) || Boolean.FALSE.equals(r) && pure(left)) // right never evaluated if left false
+            return at(new BoolNode(false), n);
+        return left == n.left && right == n.right ? n : at(new AndNode(left, right), n);
+    }
+
+    @Override
+    public Node visitNode(OrNode n) {
+        if (print) printNode(n);
+        Node left = visit(n.left), right = visit(n.right);
+        Boolean l = boolValue(left), r = boolValue(right);
+        if (l != null && r != null) return at(new BoolNode(l || r), n);
+        if (Boolean.FALSE.equals(l)) return right;
+        if (Boolean.FALSE.equals(r)) return left;
+        if (Boolean.TRUE.equals(l) || Boolean.TRUE.equals(r) && pure(left)) // right never evaluated if left true
+            return at(new BoolNode(true), n);
+        return left == n.left && right == n.right ? n : at(new OrNode(left, right), n);
+    }
+
+    @Override
+    public Node visitNode(NotNode n) {
+        if (print) printNode(n);
+        Node node = visit(n.node);
+        if (boolValue(node) != null) return at(new BoolNode(!boolValue(node)), n);
+        if (node instanceof NotNode not) return not.node; // !!b
+        return node == n.node ? n : at(new NotNode(node), n);
+    }
+}
@@ -0,0 +1,245 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.VoidException;
+import compiler.lib.BaseASTVisitor;
+import compiler.lib.Node;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Optimization pass between type checking and inlining (class hierarchy analysis): marks as direct the method
+ * calls that can only reach one method, i.e. whose method is not overridden by any subclass of the class
+ * of the object variable, so that code generation jumps to its label and inlining can replace them.
+ * A direct call still loads the dispatch pointer of its object, so that on null it faults as a virtual one.
+ * The virtual tables of the symbol table (classTable) share the STentry of an inherited method, while an
+ * overriding one gets a fresh STentry: a method has the same implementation in two classes if they have
+ * the same entry for it. The subclasses are found through the class hierarchy of TypeRels.
+ * Enriches the AST in place, as the symbol table does.
+ */
+public class DevirtualizationASTVisitor extends BaseASTVisitor<Void, VoidException> {
+
+    private final Map<String, VirtualTable> classTable;
+    private final TypeRels rels;
+    private final Map<String, Boolean> monomorphic = new HashMap<>(); // by "class.method"
+    int devirtualizedCalls = 0;
+
+    DevirtualizationASTVisitor(Map<String, VirtualTable> classTable, TypeRels rels) {
+        this.classTable = classTable;
+        this.rels = rels;
+    }
+
+    DevirtualizationASTVisitor(Map<String, VirtualTable> classTable, TypeRels rels, boolean debug) {
+        super(false, debug);
+        this.classTable = classTable;
+        this.rels = rels;
+    } // enables print for debugging
+
+    // whether no subclass of the class overrides the method
+    private boolean monomorphic(String classId, String methodId, int methodSym) {
+        return monomorphic.computeIfAbsent(classId + "." + methodId, k -> {
+            STentry method = classTable.get(classId).get(methodSym);
+            for (Map.Entry<String, VirtualTable> c : classTable.entrySet())
+                if (c.getValue().get(methodSym) != method && rels.isSubclass(c.getKey(), classId)) return false;
+            return true;
+        });
+    }
+
+    @Override
+    public Void visitNode(ProgLetInNode n) {
+        if (print) printNode(n);
+        for (Node dec : n.declist) visit(dec);
+        visit(n.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(ProgNode n) {
+        if (print) printNode(n);
+        visit(n.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(FunNode n) {
+        if (print) printNode(n, n.id);
+        for (Node dec : n.declist) visit(dec);
+        visit(n.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(VarNode n) {
+        if (print) printNode(n, n.id);
+        visit(n.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(PrintNode n) {
+        if (print) printNode(n);
+        visit(n.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(IfNode n) {
+        if (print) printNode(n);
+        visit(n.cond);
+        visit(n.th);
+        visit(n.el);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(EqualNode n) {
+        if (print) printNode(n);
+        visit(n.left);
+        visit(n.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(LessEqualNode n) {
+        if (print) printNode(n);
+        visit(n.left);
+        visit(n.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(GreaterEqualNode n) {
+        if (print) printNode(n);
+        visit(n.left);
+        visit(n.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(TimesNode n) {
+        if (print) printNode(n);
+        visit(n.left);
+        visit(n.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(DivNode n) {
+        if (print) printNode(n);
+        visit(n.left);
+        visit(n.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(PlusNode n) {
+        if (print) printNode(n);
+        visit(n.left);
+        visit(n.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(MinusNode n) {
+        if (print) printNode(n);
+        visit(n.left);
+        visit(n.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(AndNode n) {
+        if (print) printNode(n);
+        visit(n.left);
+        visit(n.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(OrNode n) {
+        if (print) printNode(n);
+        visit(n.left);
+        visit(n.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(NotNode n) {
+        if (print) printNode(n);
+        visit(n.node);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(CallNode n) {
+        if (print) printNode(n, n.id);
+        for (Node arg : n.arglist) visit(arg);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(IdNode n) {
+        if (print) printNode(n, n.id);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(BoolNode n) {
+        if (print) printNode(n, n.val.toString());
+        return null;
+    }
+
+    @Override
+    public Void visitNode(IntNode n) {
+        if (print) printNode(n, n.val.toString());
+        return null;
+    }
+
+    // OBJECT-ORIENTED
+
+    @Override
+    public Void visitNode(ClassNode n) {
+        if (print) printNode(n, n.id);
+        for (MethodNode method : n.methods) visit(method);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(MethodNode n) {
+        if (print) printNode(n, n.id);
+        for (Node dec : n.declist) visit(dec);
+        visit(n.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(EmptyNode n) {
+        if (print) printNode(n);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(ClassCallNode n) {
+        if (print) printNode(n, n.objId + "." + n.methodId);
+        for (Node arg : n.arglist) visit(arg);
+        if (!n.direct && monomorphic(((RefTypeNode) n.entry.type).id, n.methodId, n.methodSym)) {
+            n.direct = true;
+            devirtualizedCalls++;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitNode(FieldAccessNode n) {
+        if (print) printNode(n, n.objId + "." + n.fieldId);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(NewNode n) {
+        if (print) printNode(n, n.id);
+        for (Node arg : n.arglist) visit(arg);
+        return null;
+    }
+}
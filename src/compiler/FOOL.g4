@@ -2,6 +2,7 @@ grammar FOOL;
  
 @lexer::members {
 public int lexicalErrors=0;
+public java.io.PrintStream log=System.out; // where invalid chars are reported
 }
    
 /*------------------------------------------------------------------
@@ -104,6 +105,6 @@ WHITESP  : ( '\t' | ' ' | '\r' | '\n' )+    -> channel(HIDDEN) ;
 
 COMMENT : '/*' .*? '*/' -> channel(HIDDEN) ;
  
-ERR   	 : . { System.out.println("Invalid char: "+ getText() +" at line "+getLine()); lexicalErrors++; } -> channel(HIDDEN); 
+ERR   	 : . { log.println("Invalid char: "+ getText() +" at line "+getLine()); lexicalErrors++; } -> channel(HIDDEN); 
 
 
@@ -0,0 +1,312 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.DecNode;
+import compiler.lib.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optimization pass between type checking and code generation: returns the enriched AST with calls to small
+ * functions replaced by their body, the arguments in place of the parameters. Functions can be inlined if
+ * their body has at most MAX_SIZE nodes, they have no declarations and do not call themselves; a call is
+ * inlined if this does not change what its arguments do: those with effects (see pure) must be evaluated by
+ * the body exactly once, in the order of the call (last to first) and before any effect of the body, and a
+ * parameter used as an object (p.m()) needs a variable as argument. The inlined body is a copy, with the nesting
+ * level of the call: the static chain is then followed from there (nl - entry.nl). Functions called from bodies
+ * visited earlier are inlined there first, so bodies may grow above MAX_SIZE through inlining.
+ * Methods are inlined in the same way at direct calls (see DevirtualizationASTVisitor), if their body uses
+ * the object only by reading its fields, which become field accesses of the object variable of the call, and
+ * surely reads one after the arguments and before its effects: a call on null still faults there (see events).
+ */
+public class InliningASTVisitor extends RewritingASTVisitor {
+
+    static final int MAX_SIZE = 12; // nodes of the body of an inlined function
+
+    private static final int EFFECT = -1; // in the events of an expression, an effect of its own (see events)
+    private static final int RECEIVER = -2; // in the events of a method body, the first read of a field of its object
+
+    private final List<Map<Integer, FunNode>> functions = new ArrayList<>(); // inlinable functions by offset, for each nesting level
+    private final Map<String, Map<Integer, MethodNode>> methods = new HashMap<>(); // inlinable methods by offset, for each class
+    int inlinedCalls = 0;
+
+    InliningASTVisitor() {
+    }
+
+    InliningASTVisitor(boolean debug) {
+        super(debug);
+    } // enables print for debugging
+
+    private int level() {
+        return functions.size() - 1;
+    }
+
+    private static int size(Node n) {
+        return 1 + children(n).stream().mapToInt(InliningASTVisitor::size).sum();
+    }
+
+    // whether the expression calls the function declared at the given nesting level and offset
+    private static boolean calls(Node n, int nl, int offset) {
+        if (n instanceof CallNode c && c.entry.nl == nl && c.entry.offset == offset) return true;
+        return children(n).stream().anyMatch(c -> calls(c, nl, offset));
+    }
+
+    // whether a method body uses its object other than by reading fields: calls to the methods of the class,
+    // or through its fields, have no equivalent at the call site (the object there is a variable, not a frame)
+    private static boolean usesObject(Node n, int classLevel) {
+        if (n instanceof CallNode c && c.entry.nl == classLevel) return true;
+        if (n instanceof ClassCallNode c && c.entry.nl == classLevel) return true;
+        if (n instanceof FieldAccessNode f) return f.entry.nl == classLevel;
+        return children(n).stream().anyMatch(c -> usesObject(c, classLevel));
+    }
+
+    /*
+     * Events of the evaluation of an inlined body, in order: uses of the parameters marked in "tracked" (by index),
+     * EFFECT for the effects of the body itself and, for a method, RECEIVER for the first read of a field of its
+     * object (where a call on null faults). Only what comes before the first effect matters, so events end there:
+     * a tracked parameter used after it makes the result null, as does one used by a single branch of an if or
+     * by the right operand of && and ||, which may not be evaluated. The order is that of both backends: left to
+     * right, but >= and arguments (of calls and new) from last to first.
+     */
+    private static List<Integer> events(Node n, int bodyLevel, boolean[] tracked, boolean method) {
+        if (n instanceof IdNode id) {
+            if (method && id.entry.nl == bodyLevel - 1) return List.of(RECEIVER); // field of the object
+            return id.entry.nl == bodyLevel && tracked[id.entry.offset - 1] ? List.of(id.entry.offset - 1) : List.of();
+        }
+        if (n instanceof GreaterEqualNode g) return events(bodyLevel, tracked, method, List.of(g.right, g.left));
+        if (n instanceof DivNode d) return then(events(bodyLevel, tracked, method, children(d)), // division by zero unless by a constant
+                d.right instanceof IntNode i && i.val != 0 ? List.of() : List.of(EFFECT));
+        if (n instanceof AndNode a)
+            return conditional(events(a.left, bodyLevel, tracked, method), events(a.right, bodyLevel, tracked, method));
+        if (n instanceof OrNode o)
+            return conditional(events(o.left, bodyLevel, tracked, method), events(o.right, bodyLevel, tracked, method));
+        if (n instanceof PrintNode p) return then(events(p.exp, bodyLevel, tracked, method), List.of(EFFECT));
+        if (n instanceof IfNode i) {
+            List<Integer> cond = events(i.cond, bodyLevel, tracked, method);
+            List<Integer> th = after(cond, events(i.th, bodyLevel, tracked, method));
+            List<Integer> el = after(cond, events(i.el, bodyLevel, tracked, method));
+            if (th == null || el == null || !withoutEffects(th).equals(withoutEffects(el))) return null;
+            return then(cond, th.contains(EFFECT) ? th : el);
+        }
+        if (n instanceof CallNode || n instanceof ClassCallNode || n instanceof NewNode) {
+            List<Node> args = new ArrayList<>(children(n));
+            Collections.reverse(args);
+            return then(events(bodyLevel, tracked, method, args), List.of(EFFECT));
+        }
+        return events(bodyLevel, tracked, method, children(n)); // + - * == <= and !
+    }
+
+    // events of expressions evaluated one after the other
+    private static List<Integer> events(int bodyLevel, boolean[] tracked, boolean method, List<Node> nodes) {
+        List<Integer> result = List.of();
+        for (Node n : nodes) result = then(result, events(n, bodyLevel, tracked, method));
+        return result;
+    }
+
+    private static List<Integer> withoutEffects(List<Integer> events) {
+        return events.stream().filter(e -> e != EFFECT).toList();
+    }
+
+    // the events of second after those of first: once a field of the object is read, reading more does not matter
+    private static List<Integer> after(List<Integer> first, List<Integer> second) {
+        if (first == null || second == null || !first.contains(RECEIVER)) return second;
+        return second.stream().filter(e -> e != RECEIVER).toList();
+    }
+
+    private static List<Integer> then(List<Integer> first, List<Integer> second) {
+        second = after(first, second);
+        if (first == null || second == null) return null;
+        if (first.contains(EFFECT)) return second.stream().allMatch(e -> e == EFFECT) ? first : null;
+        List<Integer> result = new ArrayList<>(first);
+        result.addAll(second);
+        return result;
+    }
+
+    // events of left, then possibly of right
+    private static List<Integer> conditional(List<Integer> left, List<Integer> right) {
+        right = after(left, right);
+        if (right == null || right.stream().anyMatch(e -> e != EFFECT)) return null;
+        return then(left, right);
+    }
+
+    // copy of the body of a function for a call at nesting level nl, with the given arguments for its parameters;
+    // for a method, receiver is the variable holding the object, whose fields replace those of the class
+    private static Node inline(Node n, int bodyLevel, IdNode receiver, List<Node> args, int nl) {
+        if (n instanceof IdNode id) {
+            if (id.entry.nl == bodyLevel) return args.get(id.entry.offset - 1);
+            if (receiver != null && id.entry.nl == bodyLevel - 1) { // field of the method's object
+                FieldAccessNode field = at(new FieldAccessNode(receiver.id, id.id), id);
+                field.entry = receiver.entry;
+                field.fieldEntry = id.entry;
+                field.nl = receiver.nl;
+                return field;
+            }
+            IdNode node = at(new IdNode(id.id), id);
+            node.entry = id.entry;
+            node.nl = nl;
+            return node;
+        }
+        if (n instanceof CallNode c) {
+            CallNode call = at(new CallNode(c.id, inlineAll(c.arglist, bodyLevel, receiver, args, nl)), c);
+            call.entry = c.entry;
+            call.nl = nl;
+            return call;
+        }
+        if (n instanceof ClassCallNode c) {
+            // a variable, checked by objects() and, for methods, inlinable()
+            IdNode object = (IdNode) inline(objectOf(c), bodyLevel, receiver, args, nl);
+            ClassCallNode call = at(new ClassCallNode(object.id, c.methodId,
+                    inlineAll(c.arglist, bodyLevel, receiver, args, nl)), c);
+            call.entry = object.entry;
+            call.methodEntry = c.methodEntry;
+            call.nl = object.nl;
+            call.direct = c.direct;
+            return call;
+        }
+        if (n instanceof FieldAccessNode f) {
+            IdNode object = (IdNode) inline(objectOf(f), bodyLevel, receiver, args, nl);
+            FieldAccessNode field = at(new FieldAccessNode(object.id, f.fieldId), f);
+            field.entry = object.entry;
+            field.fieldEntry = f.fieldEntry;
+            field.nl = object.nl;
+            return field;
+        }
+        if (n instanceof NewNode c) {
+            NewNode node = at(new NewNode(c.id, inlineAll(c.arglist, bodyLevel, receiver, args, nl)), c);
+            node.entry = c.entry;
+            node.nl = nl;
+            return node;
+        }
+        List<Node> children = children(n);
+        return children.isEmpty() ? n // constants
+                : copy(n, inlineAll(children, bodyLevel, receiver, args, nl));
+    }
+
+    private static List<Node> inlineAll(List<Node> nodes, int bodyLevel, IdNode receiver, List<Node> args, int nl) {
+        return nodes.stream().map(a -> inline(a, bodyLevel, receiver, args, nl)).toList();
+    }
+
+    // the object of a method call, as a variable
+    private static IdNode objectOf(ClassCallNode c) {
+        IdNode object = at(new IdNode(c.objId), c);
+        object.entry = c.entry;
+        object.nl = c.nl;
+        return object;
+    }
+
+    private static IdNode objectOf(FieldAccessNode f) {
+        IdNode object = at(new IdNode(f.objId), f);
+        object.entry = f.entry;
+        object.nl = f.nl;
+        return object;
+    }
+
+    // whether the parameters used as objects of method calls have variables as arguments
+    private static boolean objects(Node n, int bodyLevel, List<Node> args) {
+        if (n instanceof ClassCallNode c && c.entry.nl == bodyLevel && !(args.get(c.entry.offset - 1) instanceof IdNode))
+            return false;
+        if (n instanceof FieldAccessNode f) return f.entry.nl != bodyLevel || args.get(f.entry.offset - 1) instanceof IdNode;
+        return children(n).stream().allMatch(c -> objects(c, bodyLevel, args));
+    }
+
+    // declarations of a new nesting level, recording the functions that can be inlined
+    @Override
+    DecNode visitDec(DecNode dec, int index) {
+        DecNode inlined = super.visitDec(dec, index);
+        if (inlined instanceof FunNode f && f.declist.isEmpty() && size(f.exp) <= MAX_SIZE
+                && !calls(f.exp, level(), -2 - index))
+            functions.get(level()).put(-2 - index, f);
+        return inlined;
+    }
+
+    @Override
+    public Node visitNode(ProgLetInNode n) {
+        functions.add(new HashMap<>());
+        Node result = super.visitNode(n);
+        functions.remove(level());
+        return result;
+    }
+
+    @Override
+    public Node visitNode(ProgNode n) {
+        if (print) printNode(n);
+        return n; // no functions
+    }
+
+    @Override
+    public Node visitNode(FunNode n) {
+        functions.add(new HashMap<>());
+        Node result = super.visitNode(n);
+        functions.remove(level());
+        return result;
+    }
+
+    // the inlined body for a call at nesting level nl with the given arguments, or null if the call cannot be inlined
+    private Node inlined(Node body, int bodyLevel, IdNode receiver, List<Node> arglist, int nl) {
+        boolean[] tracked = new boolean[arglist.size()]; // arguments with effects
+        List<Integer> order = new ArrayList<>();
+        for (int i = arglist.size() - 1; i >= 0; i--) {
+            tracked[i] = !pure(arglist.get(i));
+            if (tracked[i]) order.add(i);
+        }
+        List<Integer> events = events(body, bodyLevel, tracked, receiver != null);
+        if (receiver != null) { // a field read after the arguments, as the dispatch of the call: null still faults
+            if (events == null || events.indexOf(RECEIVER) != order.size()) return null;
+            events = events.stream().filter(e -> e != RECEIVER).toList();
+        }
+        if (events == null || !withoutEffects(events).equals(order) || !objects(body, bodyLevel, arglist)) return null;
+        inlinedCalls++;
+        return inline(body, bodyLevel, receiver, arglist, nl);
+    }
+
+    @Override
+    public Node visitNode(CallNode n) {
+        if (print) printNode(n, n.id);
+        List<Node> arglist = visitAll(n.arglist);
+        FunNode f = n.entry.offset < 0 ? functions.get(n.entry.nl).get(n.entry.offset) : null; // not a method
+        Node inlined = f == null ? null : inlined(f.exp, n.entry.nl + 1, null, arglist, n.nl);
+        return inlined != null ? inlined : withArgs(n, arglist);
+    }
+
+    // OBJECT-ORIENTED
+
+    @Override
+    public Node visitNode(ClassNode n) {
+        if (print) printNode(n, n.id);
+        functions.add(new HashMap<>()); // nesting level of the class (fields only), methods are one more
+        Map<Integer, MethodNode> inlinable = new HashMap<>(n.superId == null ? Map.of() : methods.get(n.superId));
+        methods.put(n.id, inlinable);
+        List<MethodNode> methodlist = new ArrayList<>(n.methods.size());
+        for (MethodNode method : n.methods) {
+            MethodNode inlined = (MethodNode) visit(method);
+            if (inlined.declist.isEmpty() && size(inlined.exp) <= MAX_SIZE && !usesObject(inlined.exp, level()))
+                inlinable.put(inlined.offset, inlined);
+            else inlinable.remove(inlined.offset); // overridden
+            methodlist.add(inlined);
+        }
+        functions.remove(level());
+        return withMethods(n, methodlist);
+    }
+
+    @Override
+    public Node visitNode(MethodNode n) {
+        functions.add(new HashMap<>());
+        Node result = super.visitNode(n);
+        functions.remove(level());
+        return result;
+    }
+
+    @Override
+    public Node visitNode(ClassCallNode n) {
+        if (print) printNode(n, n.objId + "." + n.methodId);
+        List<Node> arglist = visitAll(n.arglist);
+        MethodNode m = n.direct // a class declared later has no methods yet
+                ? methods.getOrDefault(((RefTypeNode) n.entry.type).id, Map.of()).get(n.methodEntry.offset) : null;
+        Node inlined = m == null ? null : inlined(m.exp, n.methodEntry.nl + 1, objectOf(n), arglist, n.nl);
+        return inlined != null ? inlined : withArgs(n, arglist);
+    }
+}
@@ -232,13 +232,21 @@ public class PrintEASTVisitor extends BaseEASTVisitor<Void, VoidException> {
 
     @Override
     public Void visitNode(ClassCallNode n) {
-        printNode(n, n.objId + "." + n.methodId + " at nesting level " + n.nl);
+        printNode(n, n.objId + "." + n.methodId + " at nesting level " + n.nl + (n.direct ? " (direct)" : ""));
         visit(n.entry);
         visit(n.methodEntry);
         for (Node arg : n.arglist) visit(arg);
         return null;
     }
 
+    @Override
+    public Void visitNode(FieldAccessNode n) {
+        printNode(n, n.objId + "." + n.fieldId + " at nesting level " + n.nl);
+        visit(n.entry);
+        visit(n.fieldEntry);
+        return null;
+    }
+
     @Override
     public Void visitNode(NewNode n) {
         printNode(n, n.id + " at nesting level " + n.nl);
@@ -0,0 +1,523 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.VoidException;
+import compiler.lib.BaseASTVisitor;
+import compiler.lib.Code;
+import compiler.lib.DecNode;
+import compiler.lib.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static compiler.lib.FOOLlib.*;
+
+/**
+ * Code generation for the register VM (registervm.ExecuteRVM), alternative to CodeGenerationASTVisitor.
+ * <p>
+ * Registers of a frame: r0 access link, r1 return address, r2 control link, then parameters (last one first,
+ * as pushed on the stack machine), declarations (offsets -2, -3, ...) and temporaries, used as a stack:
+ * an expression computes its value in
+ * register "next", using registers from next upwards, unless it is a variable of the current frame,
+ * whose own register is the result. A call uses the registers from next as the callee frame:
+ * access link and arguments are computed straight into the callee r0 and r3..., the result comes back in r0.
+ * Arguments are evaluated last to first, as by the stack machine, so that output comes in the same order:
+ * each one lands above those already computed, which it leaves alone.
+ */
+public class RegisterCodeGenerationASTVisitor extends BaseASTVisitor<Code, VoidException> {
+
+    private static final int HEADER = 3; // access link, return address, control link
+
+    // frame (or object, for the class level) of each nesting level enclosing the visited node
+    private record Frame(boolean object, int parameters, Map<Integer, String> functions) {
+        // register of a parameter or declaration, by its offset for the stack machine
+        int register(int offset) {
+            return offset > 0 ? HEADER + parameters - offset : HEADER + parameters - offset - 2;
+        }
+    }
+
+    // registers of the two operands of a binary operator, and the code computing them
+    private record Operands(Code code, int left, int right) {
+    }
+
+    private final List<Frame> frames = new ArrayList<>();
+    private final Map<String, List<String>> dispatchTables = new HashMap<>(); // method labels, by class
+    private int next; // first free register of the current frame
+    private int result; // register holding the value of the last visited expression
+    private int maxRegister; // highest register used by the current frame
+
+    private final CompilerContext context;
+
+    RegisterCodeGenerationASTVisitor(CompilerContext c) {
+        context = c;
+    }
+
+    RegisterCodeGenerationASTVisitor(CompilerContext c, boolean debug) {
+        super(false, debug);
+        context = c;
+    } //enables print for debugging
+
+    private static String r(int register) {
+        return "r" + register;
+    }
+
+    private void use(int register) {
+        if (register > maxRegister) maxRegister = register;
+    }
+
+    private static String move(int to, int from) {
+        return to == from ? null : "mov " + r(to) + " " + r(from);
+    }
+
+    private int level() {
+        return frames.size() - 1;
+    }
+
+    // declarations in consecutive registers from the given one: each one is computed in its own register
+    // (a var) and may use those of the following ones, not yet initialized, as temporaries; the labels of
+    // all methods are known before any code, for the direct calls (see ClassCallNode)
+    private Code declarations(List<DecNode> declist, int first) {
+        Code code = null;
+        for (DecNode dec : declist)
+            if (dec instanceof ClassNode c) {
+                List<String> dispatchTable = new ArrayList<>();
+                if (c.superId != null) dispatchTable.addAll(dispatchTables.get(c.superId));
+                for (MethodNode method : c.methods) {
+                    method.label = context.freshFunLabel();
+                    if (method.offset < dispatchTable.size()) dispatchTable.set(method.offset, method.label);
+                    else dispatchTable.add(method.label);
+                }
+                dispatchTables.put(c.id, dispatchTable);
+            }
+        for (int i = 0; i < declist.size(); i++) {
+            next = first + i;
+            code = nlJoin(code, visit(declist.get(i)));
+        }
+        next = first + declist.size();
+        return code;
+    }
+
+    // body of a function or method, with a frame of its own
+    private Code function(String label, int parameters, List<DecNode> declist, Node exp) {
+        int savedNext = next, savedMaxRegister = maxRegister;
+        frames.add(new Frame(false, parameters, new HashMap<>()));
+        int first = HEADER + parameters;
+        maxRegister = first + declist.size() - 1;
+        Code declCode = declarations(declist, first);
+        Code body = visit(exp);
+        Code code = nlJoin(
+                nlJoin(label + ":"),
+                nlJoin("enter " + (Math.max(maxRegister, HEADER - 1) + 1)), // frame size
+                declCode,
+                body,
+                nlJoin("ret " + r(result))
+        );
+        frames.remove(level());
+        next = savedNext;
+        maxRegister = savedMaxRegister;
+        return code;
+    }
+
+    // address of the frame (or object) at an enclosing nesting level, in register r
+    private Code frameAddress(int level, int r) {
+        if (level == level()) return nlJoin("lfp " + r(r));
+        if (level == 0) return nlJoin("li " + r(r) + " 0"); // main program frame, at address 0
+        Code code = null;
+        String base = "r0";
+        for (int l = level() - 1; l > level; l--) { // following the static chain (of access links)
+            code = nlJoin(code, nlJoin("lw " + r(r) + " " + base + " 0"));
+            base = r(r);
+        }
+        return code == null ? nlJoin(move(r, 0)) : code;
+    }
+
+    // value of a variable, parameter, field or class declared at the given entry, in register r
+    private Code load(STentry entry, int r) {
+        Frame frame = frames.get(entry.nl);
+        int offset = frame.object() ? entry.offset : frame.register(entry.offset);
+        use(r);
+        if (entry.nl == level()) return nlJoin(move(r, offset));
+        if (entry.nl == 0) return nlJoin("ld " + r(r) + " " + offset);
+        if (entry.nl == level() - 1) return nlJoin("lw " + r(r) + " r0 " + offset);
+        return nlJoin(frameAddress(entry.nl, r), nlJoin("lw " + r(r) + " " + r(r) + " " + offset));
+    }
+
+    private Operands operands(Node left, Node right) {
+        int dest = next;
+        Code leftCode = visit(left);
+        int leftRegister = result;
+        if (leftRegister >= dest) next = leftRegister + 1; // kept while the right operand is computed
+        Code rightCode = visit(right);
+        next = dest;
+        return new Operands(nlJoin(leftCode, rightCode), leftRegister, result);
+    }
+
+    private Code binary(String op, Node left, Node right) {
+        int dest = next;
+        Operands o = operands(left, right);
+        use(dest);
+        result = dest;
+        return nlJoin(o.code(), nlJoin(op + " " + r(dest) + " " + r(o.left()) + " " + r(o.right())));
+    }
+
+    // arguments, last to first, in consecutive registers from first on
+    private Code arguments(List<Node> arglist, int first) {
+        Code code = null;
+        for (int i = arglist.size() - 1; i >= 0; i--) {
+            int register = first + arglist.size() - 1 - i;
+            next = register;
+            code = nlJoin(code, visit(arglist.get(i)), nlJoin(move(register, result)));
+            use(register);
+        }
+        return code;
+    }
+
+    // jumps to label if cond evaluates to when, falls through otherwise, without computing the value
+    // of comparisons and of the (short-circuit) boolean operators
+    private Code condition(Node cond, String label, boolean when) {
+        Operands o;
+        if (cond instanceof NotNode c) {
+            return condition(c.node, label, !when);
+        } else if (cond instanceof AndNode c) {
+            return condition(c.left, c.right, false, label, when);
+        } else if (cond instanceof OrNode c) {
+            return condition(c.left, c.right, true, label, when);
+        } else if (cond instanceof EqualNode c) {
+            o = operands(c.left, c.right);
+            return nlJoin(o.code(), nlJoin((when ? "beq " : "bne ") + r(o.left()) + " " + r(o.right()) + " " + label));
+        } else if (cond instanceof LessEqualNode c) {
+            o = operands(c.left, c.right);
+            return nlJoin(o.code(), nlJoin((when ? "ble " : "bgt ") + r(o.left()) + " " + r(o.right()) + " " + label));
+        } else if (cond instanceof GreaterEqualNode c) {
+            o = operands(c.right, c.left);
+            return nlJoin(o.code(), nlJoin((when ? "ble " : "bgt ") + r(o.left()) + " " + r(o.right()) + " " + label));
+        } else if (cond instanceof IfNode c) { // e.g. an inlined predicate: each branch jumps on its own
+            String l1 = context.freshLabel();
+            String l2 = context.freshLabel();
+            return nlJoin(
+                    condition(c.cond, l1, true),
+                    condition(c.el, label, when),
+                    nlJoin("b " + l2),
+                    nlJoin(l1 + ":"),
+                    condition(c.th, label, when),
+                    nlJoin(l2 + ":")
+            );
+        }
+        int dest = next;
+        Code code = visit(cond);
+        next = dest;
+        return nlJoin(code, nlJoin((when ? "bt " : "bf ") + r(result) + " " + label));
+    }
+
+    // left && right (decisive false) or left || right (decisive true): left alone decides when it is decisive
+    private Code condition(Node left, Node right, boolean decisive, String label, boolean when) {
+        if (when == decisive) return nlJoin(condition(left, label, when), condition(right, label, when));
+        String skip = context.freshLabel();
+        return nlJoin(
+                condition(left, skip, decisive),
+                condition(right, label, when),
+                nlJoin(skip + ":")
+        );
+    }
+
+    @Override
+    public Code visitNode(ProgLetInNode n) {
+        if (print) printNode(n);
+        frames.add(new Frame(false, 0, new HashMap<>()));
+        maxRegister = HEADER + n.declist.size() - 1;
+        Code declCode = declarations(n.declist, HEADER);
+        Code body = visit(n.exp);
+        return nlJoin(
+                nlJoin("enter " + (maxRegister + 1)),
+                declCode,
+                body,
+                nlJoin("halt"),
+                context.getCode()
+        );
+    }
+
+    @Override
+    public Code visitNode(ProgNode n) {
+        if (print) printNode(n);
+        frames.add(new Frame(false, 0, new HashMap<>()));
+        next = HEADER;
+        maxRegister = HEADER - 1;
+        Code body = visit(n.exp);
+        return nlJoin(
+                nlJoin("enter " + (maxRegister + 1)),
+                body,
+                nlJoin("halt")
+        );
+    }
+
+    @Override
+    public Code visitNode(FunNode n) {
+        if (print) printNode(n, n.id);
+        String funl = context.freshFunLabel();
+        frames.get(level()).functions().put(next, funl); // its register is not used: calls jump to the label
+        context.putCode(function(funl, n.parlist.size(), n.declist, n.exp));
+        return null;
+    }
+
+    @Override
+    public Code visitNode(VarNode n) {
+        if (print) printNode(n, n.id);
+        int register = next;
+        use(register);
+        return nlJoin(visit(n.exp), nlJoin(move(register, result)));
+    }
+
+    @Override
+    public Code visitNode(PrintNode n) {
+        if (print) printNode(n);
+        Code code = visit(n.exp);
+        return nlJoin(code, nlJoin("print " + r(result)));
+    }
+
+    @Override
+    public Code visitNode(IfNode n) {
+        if (print) printNode(n);
+        int dest = next;
+        String l1 = context.freshLabel();
+        String l2 = context.freshLabel();
+        Code condCode = condition(n.cond, l1, true);
+        next = dest;
+        Code elCode = visit(n.el);
+        elCode = nlJoin(elCode, nlJoin(move(dest, result)));
+        next = dest;
+        Code thCode = visit(n.th);
+        thCode = nlJoin(thCode, nlJoin(move(dest, result)));
+        next = dest;
+        use(dest);
+        result = dest;
+        return nlJoin(
+                condCode,
+                elCode,
+                nlJoin("b " + l2),
+                nlJoin(l1 + ":"),
+                thCode,
+                nlJoin(l2 + ":")
+        );
+    }
+
+    @Override
+    public Code visitNode(EqualNode n) {
+        if (print) printNode(n);
+        return binary("seq", n.left, n.right);
+    }
+
+    @Override
+    public Code visitNode(LessEqualNode n) {
+        if (print) printNode(n);
+        return binary("sle", n.left, n.right);
+    }
+
+    @Override
+    public Code visitNode(GreaterEqualNode n) {
+        if (print) printNode(n);
+        return binary("sle", n.right, n.left);
+    }
+
+    @Override
+    public Code visitNode(TimesNode n) {
+        if (print) printNode(n);
+        return binary("mul", n.left, n.right);
+    }
+
+    @Override
+    public Code visitNode(DivNode n) {
+        if (print) printNode(n);
+        return binary("div", n.left, n.right);
+    }
+
+    @Override
+    public Code visitNode(PlusNode n) {
+        if (print) printNode(n);
+        return binary("add", n.left, n.right);
+    }
+
+    @Override
+    public Code visitNode(MinusNode n) {
+        if (print) printNode(n);
+        return binary("sub", n.left, n.right);
+    }
+
+    @Override
+    public Code visitNode(AndNode n) {
+        if (print) printNode(n);
+        return shortCircuit(n.left, n.right, false);
+    }
+
+    @Override
+    public Code visitNode(OrNode n) {
+        if (print) printNode(n);
+        return shortCircuit(n.left, n.right, true);
+    }
+
+    // value of left && right (decisive false) or left || right (decisive true): right is evaluated
+    // only if left is not decisive
+    private Code shortCircuit(Node left, Node right, boolean decisive) {
+        int dest = next;
+        String l1 = context.freshLabel();
+        String l2 = context.freshLabel();
+        Code leftCode = condition(left, l1, decisive);
+        next = dest;
+        Code rightCode = visit(right);
+        rightCode = nlJoin(rightCode, nlJoin(move(dest, result)));
+        next = dest;
+        use(dest);
+        result = dest;
+        return nlJoin(
+                leftCode,
+                rightCode,
+                nlJoin("b " + l2),
+                nlJoin(l1 + ":"),
+                nlJoin("li " + r(dest) + " " + (decisive ? 1 : 0)),
+                nlJoin(l2 + ":")
+        );
+    }
+
+    @Override
+    public Code visitNode(NotNode n) {
+        if (print) printNode(n);
+        int dest = next;
+        Code code = visit(n.node);
+        use(dest);
+        String not = "not " + r(dest) + " " + r(result);
+        result = dest;
+        return nlJoin(code, nlJoin(not));
+    }
+
+    @Override
+    public Code visitNode(CallNode n) {
+        if (print) printNode(n, n.id);
+        int base = next; // frame of the callee
+        Code code = arguments(n.arglist, base + HEADER);
+        use(base + HEADER - 1);
+        Frame frame = frames.get(n.entry.nl);
+        code = nlJoin(code, frameAddress(n.entry.nl, base)); // access link
+        if (n.entry.offset >= 0) { // method call from a method: the access link is the object
+            int target = base + HEADER + n.arglist.size();
+            use(target);
+            code = nlJoin(code,
+                    nlJoin("lw " + r(target) + " " + r(base) + " 0"), // dispatch pointer
+                    nlJoin("lw " + r(target) + " " + r(target) + " " + n.entry.offset), // method address
+                    nlJoin("call " + r(target) + " " + base)
+            );
+        } else {
+            code = nlJoin(code, nlJoin("calli " + frame.functions().get(frame.register(n.entry.offset)) + " " + base));
+        }
+        next = base;
+        result = base;
+        return code;
+    }
+
+    @Override
+    public Code visitNode(IdNode n) {
+        if (print) printNode(n, n.id);
+        if (n.entry.nl == level()) { // a register of the current frame
+            result = frames.get(level()).register(n.entry.offset);
+            return null;
+        }
+        result = next;
+        return load(n.entry, next);
+    }
+
+    @Override
+    public Code visitNode(BoolNode n) {
+        if (print) printNode(n, n.val.toString());
+        use(next);
+        result = next;
+        return nlJoin("li " + r(next) + " " + (n.val ? 1 : 0));
+    }
+
+    @Override
+    public Code visitNode(IntNode n) {
+        if (print) printNode(n, n.val.toString());
+        use(next);
+        result = next;
+        return nlJoin("li " + r(next) + " " + n.val);
+    }
+
+    // OBJECT-ORIENTED
+
+    @Override
+    public Code visitNode(ClassNode n) {
+        if (print) printNode(n, n.id);
+        int register = next;
+        use(register);
+        frames.add(new Frame(true, 0, new HashMap<>()));
+        for (MethodNode method : n.methods) visitNode(method);
+        frames.remove(level());
+        List<String> dispatchTable = dispatchTables.get(n.id); // built by declarations()
+        StringBuilder table = new StringBuilder("table " + r(register));
+        for (String s : dispatchTable) table.append(' ').append(s);
+        return nlJoin(table.toString());
+    }
+
+    @Override
+    public Code visitNode(MethodNode n) {
+        if (print) printNode(n);
+        context.putCode(function(n.label, n.parlist.size(), n.declist, n.exp));
+        return null;
+    }
+
+    @Override
+    public Code visitNode(EmptyNode n) {
+        use(next);
+        result = next;
+        return nlJoin("li " + r(next) + " -1");
+    }
+
+    @Override
+    public Code visitNode(ClassCallNode n) {
+        if (print) printNode(n);
+        int base = next; // frame of the callee
+        int target = base + HEADER + n.arglist.size();
+        Code code = arguments(n.arglist, base + HEADER);
+        next = base;
+        result = base;
+        use(target);
+        if (n.direct) return nlJoin(
+                code,
+                load(n.entry, base), // object pointer, access link of the method
+                nlJoin("lw " + r(target) + " " + r(base) + " 0"), // dispatch pointer, unused: faults on null as a virtual call
+                nlJoin("calli " + dispatchTables.get(((RefTypeNode) n.entry.type).id).get(n.methodEntry.offset) + " " + base)
+        );
+        return nlJoin(
+                code,
+                load(n.entry, base), // object pointer, access link of the method
+                nlJoin("lw " + r(target) + " " + r(base) + " 0"), // dispatch pointer
+                nlJoin("lw " + r(target) + " " + r(target) + " " + n.methodEntry.offset), // method address
+                nlJoin("call " + r(target) + " " + base)
+        );
+    }
+
+    @Override
+    public Code visitNode(FieldAccessNode n) {
+        if (print) printNode(n);
+        int dest = next;
+        result = dest;
+        return nlJoin(
+                load(n.entry, dest), // object pointer
+                nlJoin("lw " + r(dest) + " " + r(dest) + " " + n.fieldEntry.offset)
+        );
+    }
+
+    @Override
+    public Code visitNode(NewNode n) {
+        if (print) printNode(n);
+        int base = next; // dispatch pointer, then the fields
+        Code code = arguments(n.arglist, base + 1);
+        next = base;
+        result = base;
+        use(base);
+        return nlJoin(
+                code,
+                nlJoin("ld " + r(base) + " " + frames.get(0).register(n.entry.offset)), // dispatch pointer
+                nlJoin("new " + r(base) + " " + r(base) + " " + n.arglist.size())
+        );
+    }
+}
@@ -0,0 +1,310 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.VoidException;
+import compiler.lib.BaseASTVisitor;
+import compiler.lib.DecNode;
+import compiler.lib.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base of the optimization passes that rewrite the enriched AST (see ConstantFoldingASTVisitor and
+ * InliningASTVisitor): by default each node is returned as it is if its children did not change, otherwise
+ * it is rebuilt with the new children, keeping its line and what the symbol table set on it.
+ * Also has the analyses of expressions the passes share: their children and whether they have effects.
+ */
+abstract class RewritingASTVisitor extends BaseASTVisitor<Node, VoidException> {
+
+    RewritingASTVisitor() {
+    }
+
+    RewritingASTVisitor(boolean debug) {
+        super(false, debug);
+    } // enables print for debugging
+
+    static <T extends Node> T at(T node, Node original) {
+        node.setLine(original.getLine());
+        return node;
+    }
+
+    // subexpressions of an expression, left to right as written (arguments first to last)
+    static List<Node> children(Node n) {
+        if (n instanceof PlusNode p) return List.of(p.left, p.right);
+        if (n instanceof MinusNode m) return List.of(m.left, m.right);
+        if (n instanceof TimesNode t) return List.of(t.left, t.right);
+        if (n instanceof DivNode d) return List.of(d.left, d.right);
+        if (n instanceof EqualNode e) return List.of(e.left, e.right);
+        if (n instanceof LessEqualNode l) return List.of(l.left, l.right);
+        if (n instanceof GreaterEqualNode g) return List.of(g.left, g.right);
+        if (n instanceof AndNode a) return List.of(a.left, a.right);
+        if (n instanceof OrNode o) return List.of(o.left, o.right);
+        if (n instanceof NotNode not) return List.of(not.node);
+        if (n instanceof IfNode i) return List.of(i.cond, i.th, i.el);
+        if (n instanceof PrintNode p) return List.of(p.exp);
+        if (n instanceof CallNode c) return c.arglist;
+        if (n instanceof ClassCallNode c) return c.arglist;
+        if (n instanceof NewNode c) return c.arglist;
+        return List.of(); // constants and variables
+    }
+
+    // copy of an operator (arithmetic, comparison, boolean, if, print) with the given children
+    static Node copy(Node n, List<Node> children) {
+        Node l = children.get(0), r = children.size() > 1 ? children.get(1) : null;
+        if (n instanceof PlusNode) return at(new PlusNode(l, r), n);
+        if (n instanceof MinusNode) return at(new MinusNode(l, r), n);
+        if (n instanceof TimesNode) return at(new TimesNode(l, r), n);
+        if (n instanceof DivNode) return at(new DivNode(l, r), n);
+        if (n instanceof EqualNode) return at(new EqualNode(l, r), n);
+        if (n instanceof LessEqualNode) return at(new LessEqualNode(l, r), n);
+        if (n instanceof GreaterEqualNode) return at(new GreaterEqualNode(l, r), n);
+        if (n instanceof AndNode) return at(new AndNode(l, r), n);
+        if (n instanceof OrNode) return at(new OrNode(l, r), n);
+        if (n instanceof NotNode) return at(new NotNode(l), n);
+        if (n instanceof IfNode) return at(new IfNode(l, r, children.get(2)), n);
+        if (n instanceof PrintNode) return at(new PrintNode(l), n);
+        throw new IllegalArgumentException("Not an operator: " + n);
+    }
+
+    // whether evaluating the expression has no effect (output, allocation, errors, calls), so that it can be
+    // dropped, or evaluated any number of times, at any moment
+    static boolean pure(Node n) {
+        if (n instanceof IntNode || n instanceof BoolNode || n instanceof EmptyNode || n instanceof IdNode) return true;
+        if (n instanceof DivNode d) return pure(d.left) && d.right instanceof IntNode i && i.val != 0;
+        if (n instanceof PlusNode || n instanceof MinusNode || n instanceof TimesNode || n instanceof EqualNode
+                || n instanceof LessEqualNode || n instanceof GreaterEqualNode || n instanceof AndNode
+                || n instanceof OrNode || n instanceof NotNode || n instanceof IfNode)
+            return children(n).stream().allMatch(RewritingASTVisitor::pure);
+        return false;
+    }
+
+    List<Node> visitAll(List<Node> nodes) {
+        List<Node> result = new ArrayList<>(nodes.size());
+        boolean changed = false;
+        for (Node n : nodes) {
+            Node visited = visit(n);
+            result.add(visited);
+            changed |= visited != n;
+        }
+        return changed ? result : nodes;
+    }
+
+    // declarations of a nesting level; the one at index i has offset -2-i
+    List<DecNode> visitDecs(List<DecNode> decs) {
+        List<DecNode> result = new ArrayList<>(decs.size());
+        boolean changed = false;
+        for (int i = 0; i < decs.size(); i++) {
+            DecNode visited = visitDec(decs.get(i), i);
+            result.add(visited);
+            changed |= visited != decs.get(i);
+        }
+        return changed ? result : decs;
+    }
+
+    DecNode visitDec(DecNode dec, int index) {
+        return (DecNode) visit(dec);
+    }
+
+    // the call with the given arguments: the same node if they did not change
+    static CallNode withArgs(CallNode n, List<Node> arglist) {
+        if (arglist == n.arglist) return n;
+        CallNode call = at(new CallNode(n.id, arglist), n);
+        call.entry = n.entry;
+        call.nl = n.nl;
+        return call;
+    }
+
+    static ClassCallNode withArgs(ClassCallNode n, List<Node> arglist) {
+        if (arglist == n.arglist) return n;
+        ClassCallNode call = at(new ClassCallNode(n.objId, n.methodId, arglist), n);
+        call.entry = n.entry;
+        call.methodEntry = n.methodEntry;
+        call.nl = n.nl;
+        call.direct = n.direct;
+        return call;
+    }
+
+    static NewNode withArgs(NewNode n, List<Node> arglist) {
+        if (arglist == n.arglist) return n;
+        NewNode node = at(new NewNode(n.id, arglist), n);
+        node.entry = n.entry;
+        node.nl = n.nl;
+        return node;
+    }
+
+    // the class with the given methods: the same node if they did not change
+    static ClassNode withMethods(ClassNode n, List<MethodNode> methods) {
+        if (methods.equals(n.methods)) return n; // MethodNode has no equals: compared by identity
+        ClassNode c = at(new ClassNode(n.id, n.getType(), n.fields, methods, n.superId), n);
+        c.superEntry = n.superEntry;
+        return c;
+    }
+
+    // operators: rebuilt if a child changed
+    private Node visitOperator(Node n) {
+        if (print) printNode(n);
+        List<Node> children = children(n), visited = visitAll(children);
+        return visited == children ? n : copy(n, visited);
+    }
+
+    @Override
+    public Node visitNode(ProgLetInNode n) {
+        if (print) printNode(n);
+        List<DecNode> declist = visitDecs(n.declist);
+        Node exp = visit(n.exp);
+        return declist == n.declist && exp == n.exp ? n : at(new ProgLetInNode(declist, exp), n);
+    }
+
+    @Override
+    public Node visitNode(ProgNode n) {
+        if (print) printNode(n);
+        Node exp = visit(n.exp);
+        return exp == n.exp ? n : at(new ProgNode(exp), n);
+    }
+
+    @Override
+    public Node visitNode(FunNode n) {
+        if (print) printNode(n, n.id);
+        List<DecNode> declist = visitDecs(n.declist);
+        Node exp = visit(n.exp);
+        return declist == n.declist && exp == n.exp ? n
+                : at(new FunNode(n.id, n.retType, n.parlist, declist, exp), n);
+    }
+
+    @Override
+    public Node visitNode(VarNode n) {
+        if (print) printNode(n, n.id);
+        Node exp = visit(n.exp);
+        return exp == n.exp ? n : at(new VarNode(n.id, n.getType(), exp), n);
+    }
+
+    @Override
+    public Node visitNode(PrintNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(IfNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(EqualNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(LessEqualNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(GreaterEqualNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(TimesNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(DivNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(PlusNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(MinusNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(AndNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(OrNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(NotNode n) {
+        return visitOperator(n);
+    }
+
+    @Override
+    public Node visitNode(CallNode n) {
+        if (print) printNode(n, n.id);
+        return withArgs(n, visitAll(n.arglist));
+    }
+
+    @Override
+    public Node visitNode(IdNode n) {
+        if (print) printNode(n, n.id);
+        return n;
+    }
+
+    @Override
+    public Node visitNode(BoolNode n) {
+        if (print) printNode(n, n.val.toString());
+        return n;
+    }
+
+    @Override
+    public Node visitNode(IntNode n) {
+        if (print) printNode(n, n.val.toString());
+        return n;
+    }
+
+    // OBJECT-ORIENTED
+
+    @Override
+    public Node visitNode(ClassNode n) {
+        if (print) printNode(n, n.id);
+        List<MethodNode> methods = new ArrayList<>(n.methods.size());
+        for (MethodNode method : n.methods) methods.add((MethodNode) visit(method));
+        return withMethods(n, methods);
+    }
+
+    @Override
+    public Node visitNode(MethodNode n) {
+        if (print) printNode(n, n.id);
+        List<DecNode> declist = visitDecs(n.declist);
+        Node exp = visit(n.exp);
+        if (declist == n.declist && exp == n.exp) return n;
+        MethodNode method = at(new MethodNode(n.id, n.retType, n.parlist, declist, exp), n);
+        method.offset = n.offset;
+        return method;
+    }
+
+    @Override
+    public Node visitNode(EmptyNode n) {
+        if (print) printNode(n);
+        return n;
+    }
+
+    @Override
+    public Node visitNode(ClassCallNode n) {
+        if (print) printNode(n, n.objId + "." + n.methodId);
+        return withArgs(n, visitAll(n.arglist));
+    }
+
+    @Override
+    public Node visitNode(FieldAccessNode n) {
+        if (print) printNode(n, n.objId + "." + n.fieldId);
+        return n;
+    }
+
+    @Override
+    public Node visitNode(NewNode n) {
+        if (print) printNode(n, n.id);
+        return withArgs(n, visitAll(n.arglist));
+    }
+}
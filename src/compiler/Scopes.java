@@ -0,0 +1,63 @@
+package compiler;
+
+import java.util.Arrays;
+
+// scope annidati della tabella dei simboli, a legame superficiale (shallow binding): per ogni simbolo c'e'
+// la dichiarazione visibile, in un array indicizzato dal numero del simbolo, con la catena di quelle che nasconde;
+// uscendo da uno scope si ripristinano quelle nascoste. La ricerca costa O(1) a ogni profondita' di annidamento
+class Scopes {
+
+    private record Binding(STentry entry, int scope, Binding shadowed) {
+    }
+
+    private Binding[] bindings = new Binding[64]; // per simbolo
+    private int[] declared = new int[64]; // simboli dichiarati negli scope aperti, nell'ordine
+    private int declaredCount = 0;
+    private int[] marks = new int[8]; // declaredCount all'apertura di ogni scope
+    private int scope = -1; // scope corrente (il livello di annidamento)
+
+    void enter() {
+        if (++scope == marks.length) marks = Arrays.copyOf(marks, scope * 2);
+        marks[scope] = declaredCount;
+    }
+
+    void exit() {
+        while (declaredCount > marks[scope]) {
+            int sym = declared[--declaredCount];
+            bindings[sym] = bindings[sym].shadowed;
+        }
+        scope--;
+    }
+
+    // dichiara il simbolo nello scope corrente; restituisce la dichiarazione che rimpiazza
+    // se era gia' dichiarato in questo scope, altrimenti null
+    STentry put(int sym, STentry entry) {
+        if (sym >= bindings.length) bindings = Arrays.copyOf(bindings, Math.max(sym + 1, bindings.length * 2));
+        Binding b = bindings[sym];
+        if (b != null && b.scope == scope) {
+            bindings[sym] = new Binding(entry, scope, b.shadowed);
+            return b.entry;
+        }
+        bindings[sym] = new Binding(entry, scope, b);
+        if (declaredCount == declared.length) declared = Arrays.copyOf(declared, declaredCount * 2);
+        declared[declaredCount++] = sym;
+        return null;
+    }
+
+    // dichiarazione visibile del simbolo, null se non dichiarato
+    STentry lookup(int sym) {
+        return sym < bindings.length && bindings[sym] != null ? bindings[sym].entry : null;
+    }
+
+    // se la dichiarazione visibile del simbolo e' globale (scope 0)
+    boolean isGlobal(int sym) {
+        return sym < bindings.length && bindings[sym] != null && bindings[sym].scope == 0;
+    }
+
+    // dichiarazione globale del simbolo (le classi), anche se nascosta
+    STentry global(int sym) {
+        Binding b = sym < bindings.length ? bindings[sym] : null;
+        while (b != null && b.scope > 0) b = b.shadowed;
+        return b == null ? null : b.entry;
+    }
+}
@@ -10,38 +10,45 @@ import compiler.lib.TypeNode;
 import java.util.*;
 
 
+// gli identificatori sono risolti per numero di simbolo (vedi Symbols): gli scope annidati sono in Scopes,
+// i membri della classe corrente nella sua tavola virtuale, che nasconde le dichiarazioni globali
 public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
 
-    private final List<Map<String, STentry>> symTable = new ArrayList<>();
+    private final Scopes symTable = new Scopes();
+    private VirtualTable members = null; // tavola virtuale della classe di cui si visita il corpo
     private int nestingLevel = 0; // current nesting level
     private int decOffset = -2; // counter for offset of local declarations at current nesting level
     private int classOffset = -2;
-    Map<String, Map<String, STentry>> classTable = new HashMap<>();
+    Map<String, VirtualTable> classTable = new HashMap<>();
     int stErrors = 0;
 
-    SymbolTableASTVisitor() {
+    private final CompilerContext context;
+
+    SymbolTableASTVisitor(CompilerContext c) {
+        context = c;
     }
 
-    SymbolTableASTVisitor(boolean debug) {
+    SymbolTableASTVisitor(CompilerContext c, boolean debug) {
         super(debug);
+        context = c;
     } // enables print for debugging
 
-    private STentry stLookup(String id) {
-        int j = nestingLevel;
-        STentry entry = null;
-        while (j >= 0 && entry == null)
-            entry = symTable.get(j--).get(id);
+    private STentry stLookup(int sym) {
+        STentry entry = symTable.lookup(sym);
+        if (members != null && (entry == null || symTable.isGlobal(sym))) {
+            STentry member = members.get(sym);
+            if (member != null) return member;
+        }
         return entry;
     }
 
     @Override
     public Void visitNode(ProgLetInNode n) {
         if (print) printNode(n);
-        Map<String, STentry> hm = new HashMap<>();
-        symTable.add(hm);
+        symTable.enter();
         for (Node dec : n.declist) visit(dec);
         visit(n.exp);
-        symTable.removeFirst();
+        symTable.exit();
         return null;
     }
 
@@ -55,32 +62,31 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
     @Override
     public Void visitNode(FunNode n) {
         if (print) printNode(n);
-        Map<String, STentry> hm = symTable.get(nestingLevel);
         List<TypeNode> parTypes = new ArrayList<>();
         for (ParNode par : n.parlist) parTypes.add(par.getType());
-        STentry entry = new STentry(nestingLevel, new ArrowTypeNode(parTypes, n.retType), decOffset--);
+        STentry entry = new STentry(nestingLevel, context.typeRels.arrowType(parTypes, n.retType), decOffset--);
         //inserimento di ID nella symtable
-        if (hm.put(n.id, entry) != null) {
-            System.out.println("Fun id " + n.id + " at line " + n.getLine() + " already declared");
+        if (symTable.put(n.sym, entry) != null) {
+            context.log.println("Fun id " + n.id + " at line " + n.getLine() + " already declared");
             stErrors++;
         }
-        //creare una nuova hashmap per la symTable
+        //aprire un nuovo scope nella symTable
         nestingLevel++;
-        Map<String, STentry> hmn = new HashMap<>();
-        symTable.add(hmn);
+        symTable.enter();
         int prevNLDecOffset = decOffset; // stores counter for offset of declarations at previous nesting level
         decOffset = -2;
 
         int parOffset = 1;
         for (ParNode par : n.parlist)
-            if (hmn.put(par.id, new STentry(nestingLevel, par.getType(), parOffset++)) != null) {
-                System.out.println("Par id " + par.id + " at line " + n.getLine() + " already declared");
+            if (symTable.put(par.sym, new STentry(nestingLevel, par.getType(), parOffset++)) != null) {
+                context.log.println("Par id " + par.id + " at line " + n.getLine() + " already declared");
                 stErrors++;
             }
         for (Node dec : n.declist) visit(dec);
         visit(n.exp);
-        //rimuovere la hashmap corrente poiche' esco dallo scope
-        symTable.remove(nestingLevel--);
+        //chiudere lo scope corrente poiche' ne esco
+        symTable.exit();
+        nestingLevel--;
         decOffset = prevNLDecOffset; // restores counter for offset of declarations at previous nesting level
         return null;
     }
@@ -89,11 +95,10 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
     public Void visitNode(VarNode n) {
         if (print) printNode(n);
         visit(n.exp);
-        Map<String, STentry> hm = symTable.get(nestingLevel);
         STentry entry = new STentry(nestingLevel, n.getType(), decOffset--);
         //inserimento di ID nella symtable
-        if (hm.put(n.id, entry) != null) {
-            System.out.println("Var id " + n.id + " at line " + n.getLine() + " already declared");
+        if (symTable.put(n.sym, entry) != null) {
+            context.log.println("Var id " + n.id + " at line " + n.getLine() + " already declared");
             stErrors++;
         }
         return null;
@@ -198,9 +203,9 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
     @Override
     public Void visitNode(CallNode n) {
         if (print) printNode(n);
-        STentry entry = stLookup(n.id);
+        STentry entry = stLookup(n.sym);
         if (entry == null) {
-            System.out.println("Fun id " + n.id + " at line " + n.getLine() + " not declared");
+            context.log.println("Fun id " + n.id + " at line " + n.getLine() + " not declared");
             stErrors++;
         } else {
             n.entry = entry;
@@ -213,9 +218,9 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
     @Override
     public Void visitNode(IdNode n) {
         if (print) printNode(n);
-        STentry entry = stLookup(n.id);
+        STentry entry = stLookup(n.sym);
         if (entry == null) {
-            System.out.println("Var or Par id " + n.id + " at line " + n.getLine() + " not declared");
+            context.log.println("Var or Par id " + n.id + " at line " + n.getLine() + " not declared");
             stErrors++;
         } else {
             n.entry = entry;
@@ -231,24 +236,20 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         STentry entry = new STentry(nestingLevel, type, classOffset--);
         Set<String> declarations = new HashSet<>();
         if (nestingLevel != 0) {
-            System.out.println("Class id " + n.id + " at line " + n.getLine() + " must be declared at nesting level 0");
+            context.log.println("Class id " + n.id + " at line " + n.getLine() + " must be declared at nesting level 0");
             stErrors++;
         }
-        Map<String, STentry> hm = symTable.get(nestingLevel);
-        if (hm.put(n.id, entry) != null) {
-            System.out.println("Class " + n.id + " at line " + n.getLine() + " already declared");
+        if (symTable.put(n.sym, entry) != null) {
+            context.log.println("Class " + n.id + " at line " + n.getLine() + " already declared");
             stErrors++;
         }
 
-        Map<String, STentry> virtualTable = new HashMap<>();
+        VirtualTable virtualTable = new VirtualTable(n.superId != null ? classTable.get(n.superId) : null);
 
         if (n.superId != null) {
-            Map<String, STentry> parentVirtualTable = classTable.get(n.superId);
-            virtualTable.putAll(parentVirtualTable);
-
-            STentry parentEntry = symTable.getFirst().get(n.superId);
-            if (!(parentEntry.type instanceof ClassTypeNode parentType)) {
-                System.out.println("Parent class " + n.superId + " at line " + n.getLine() + " must be a class.");
+            STentry parentEntry = symTable.global(n.superSym);
+            if (parentEntry == null || !(parentEntry.type instanceof ClassTypeNode parentType)) {
+                context.log.println("Parent class " + n.superId + " at line " + n.getLine() + " must be a class.");
                 stErrors++;
             } else {
                 type.allFields.addAll(parentType.allFields);
@@ -258,27 +259,29 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         }
 
         nestingLevel++;
-        symTable.add(virtualTable);
+        symTable.enter();
+        VirtualTable prevMembers = members;
+        members = virtualTable;
         int fieldOffset = -type.allFields.size() - 1;
         int methodOffset = type.allMethods.size();
 
         for (FieldNode field : n.fields) {
             if(!declarations.add(field.id)){
-                System.out.println("Field "+field.id+" at line "+field.getLine()+" already declared");
+                context.log.println("Field "+field.id+" at line "+field.getLine()+" already declared");
                 stErrors++;
             }
 
-            if (virtualTable.containsKey(field.id)) {
-                STentry oldEntry = virtualTable.get(field.id);
+            STentry oldEntry = virtualTable.get(field.sym);
+            if (oldEntry != null) {
                 STentry freshEntry = new STentry(oldEntry.nl, field.getType(), oldEntry.offset);
 
-                int index = type.allFields.indexOf(virtualTable.get(field.id).type); // indice del campo nella classe padre
+                int index = -oldEntry.offset - 1; // indice del campo nella classe padre (dall'offset: i tipi sono condivisi)
                 type.allFields.set(index, field.getType());
                 field.offset = oldEntry.offset;
 
-                virtualTable.put(field.id, freshEntry); // rimpiazziamo la st entry con il tipo aggiornato
+                virtualTable.put(field.sym, freshEntry); // rimpiazziamo la st entry con il tipo aggiornato
             } else {
-                virtualTable.put(field.id, new STentry(nestingLevel, field.getType(), fieldOffset));
+                virtualTable.put(field.sym, new STentry(nestingLevel, field.getType(), fieldOffset));
                 type.allFields.add(field.getType());
                 field.offset = fieldOffset--;
             }
@@ -286,22 +289,22 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
 
         for (MethodNode method : n.methods) {
             if(!declarations.add(method.id)){
-                System.out.println("Method "+method.id+" at line "+method.getLine()+" already declared");
+                context.log.println("Method "+method.id+" at line "+method.getLine()+" already declared");
                 stErrors++;
             }
-            ArrowTypeNode a = new ArrowTypeNode(method.parlist.stream().map(DecNode::getType).toList(), method.retType);
+            ArrowTypeNode a = context.typeRels.arrowType(method.parlist.stream().map(DecNode::getType).toList(), method.retType);
 
-            if (virtualTable.containsKey(method.id)) {
-                STentry oldEntry = virtualTable.get(method.id);
+            STentry oldEntry = virtualTable.get(method.sym);
+            if (oldEntry != null) {
                 STentry freshEntry = new STentry(oldEntry.nl, a, oldEntry.offset);
 
-                int index = type.allMethods.indexOf((ArrowTypeNode) virtualTable.get(method.id).type); // indice del metodo nella classe padre
+                int index = oldEntry.offset; // indice del metodo nella classe padre
                 type.allMethods.set(index, a);
                 method.offset = oldEntry.offset;
 
-                virtualTable.put(method.id, freshEntry); // rimpiazziamo la st entry con il tipo aggiornato
+                virtualTable.put(method.sym, freshEntry); // rimpiazziamo la st entry con il tipo aggiornato
             } else {
-                virtualTable.put(method.id, new STentry(nestingLevel, a, methodOffset));
+                virtualTable.put(method.sym, new STentry(nestingLevel, a, methodOffset));
                 type.allMethods.add(a);
                 method.offset = methodOffset++;
             }
@@ -309,7 +312,9 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         }
 
         classTable.put(n.id, virtualTable);
-        symTable.remove(nestingLevel--);
+        members = prevMembers;
+        symTable.exit();
+        nestingLevel--;
         decOffset--;
 
         return null;
@@ -318,13 +323,12 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
     @Override
     public Void visitNode(MethodNode n) {
         nestingLevel++;
-        Map<String, STentry> hmn = new HashMap<>();
-        symTable.add(hmn);
+        symTable.enter();
 
         int parOffset = 1;
         for (ParNode par : n.parlist) {
-            if (hmn.put(par.id, new STentry(nestingLevel, par.getType(), parOffset++)) != null) {
-                System.out.println("Par id " + par.id + " at line " + n.getLine() + " already declared");
+            if (symTable.put(par.sym, new STentry(nestingLevel, par.getType(), parOffset++)) != null) {
+                context.log.println("Par id " + par.id + " at line " + n.getLine() + " already declared");
                 stErrors++;
             }
         }
@@ -334,7 +338,8 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         for (Node dec : n.declist) visit(dec);
         visit(n.exp);
 
-        symTable.remove(nestingLevel--);
+        symTable.exit();
+        nestingLevel--;
         decOffset = prevNLDecOffset;
         return null;
     }
@@ -342,23 +347,23 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
     @Override
     public Void visitNode(ClassCallNode n) {
         if (print) printNode(n);
-        STentry entry = stLookup(n.objId);
+        STentry entry = stLookup(n.objSym);
         if (entry == null) {
-            System.out.println("Var with id " + n.objId + " at line " + n.getLine() + " is not declared");
+            context.log.println("Var with id " + n.objId + " at line " + n.getLine() + " is not declared");
             stErrors++;
         } else {
             n.entry = entry;
             n.nl = nestingLevel;
             if (!(n.entry.type instanceof RefTypeNode type)) {
-                System.out.println("Var with id " + n.objId + " at line " + n.getLine() + " must be an object");
+                context.log.println("Var with id " + n.objId + " at line " + n.getLine() + " must be an object");
                 stErrors++;
             } else {
-                Map<String, STentry> virtualTable = classTable.get(type.id);
+                VirtualTable virtualTable = classTable.get(type.id);
                 if (virtualTable == null) {
-                    System.out.println("Object " + n.objId + "'s class " + type.id + " is not declared");
+                    context.log.println("Object " + n.objId + "'s class " + type.id + " is not declared");
                     stErrors++;
                 } else {
-                    n.methodEntry = virtualTable.get(n.methodId);
+                    n.methodEntry = virtualTable.get(n.methodSym);
                 }
             }
         }
@@ -369,13 +374,13 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
     @Override
     public Void visitNode(NewNode n) {
         if (print) printNode(n);
-        STentry entry = symTable.getFirst().get(n.id);
-        Map<String, STentry> virtualTable = classTable.get(n.id);
+        STentry entry = symTable.global(n.sym);
+        VirtualTable virtualTable = classTable.get(n.id);
         if (entry == null) {
-            System.out.println("Class " + n.id + " at line " + n.getLine() + " is not declared");
+            context.log.println("Class " + n.id + " at line " + n.getLine() + " is not declared");
             stErrors++;
         } else if (virtualTable == null) {
-            System.out.println("Variable " + n.id + " at line " + n.getLine() + " must be a class");
+            context.log.println("Variable " + n.id + " at line " + n.getLine() + " must be a class");
             stErrors++;
         } else {
             n.entry = entry;
@@ -0,0 +1,33 @@
+package compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// identificatori di una compilazione, numerati (interning) durante la generazione dell'AST:
+// la tabella dei simboli li risolve per numero, senza calcolare l'hash della stringa a ogni livello
+public class Symbols {
+
+    private final Map<String, Integer> symbols = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    // numero dell'identificatore, lo stesso per ogni sua occorrenza
+    public int intern(String id) {
+        Integer sym = symbols.get(id);
+        if (sym == null) {
+            sym = names.size();
+            symbols.put(id, sym);
+            names.add(id);
+        }
+        return sym;
+    }
+
+    public String name(int sym) {
+        return names.get(sym);
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
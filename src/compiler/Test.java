@@ -1,93 +1,84 @@
 package compiler;
 
-import compiler.exc.IncomplException;
-import compiler.exc.TypeException;
-import compiler.lib.FOOLlib;
-import compiler.lib.Node;
-import compiler.lib.TypeNode;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.tree.ParseTree;
+import compiler.lib.Code;
+import registervm.ExecuteRVM;
+import visualsvm.ExecuteVM;
 import visualsvm.ExecuteVVM;
-import visualsvm.SVMLexer;
-import visualsvm.SVMParser;
+import visualsvm.ProgramImage;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
 
 public class Test {
     public static void main(String[] args) throws Exception {
 
         String fileName = "test.fool";
-
-        CharStream chars = CharStreams.fromFileName(fileName);
-        FOOLLexer lexer = new FOOLLexer(chars);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        FOOLParser parser = new FOOLParser(tokens);
-
-        System.out.println("Generating ST via lexer and parser.");
-        ParseTree st = parser.prog();
-        System.out.println("You had " + lexer.lexicalErrors + " lexical errors and " +
-                parser.getNumberOfSyntaxErrors() + " syntax errors.\n");
-
-        System.out.println("Generating AST.");
-        ASTGenerationSTVisitor visitor = new ASTGenerationSTVisitor(true); // use true to visualize the ST
-        Node ast = visitor.visit(st);
-        System.out.println();
-
-        System.out.println("Enriching AST via symbol table.");
-        SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor();
-        symtableVisitor.visit(ast);
-        System.out.println("You had " + symtableVisitor.stErrors + " symbol table errors.\n");
-
-        System.out.println("Visualizing Enriched AST.");
-        new PrintEASTVisitor().visit(ast);
-        System.out.println();
-
-        System.out.println("Checking Types.");
-        try {
-            TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor(true);
-            TypeNode mainType = typeCheckVisitor.visit(ast);
-            System.out.print("Type of main program expression is: ");
-            new PrintEASTVisitor().visit(mainType);
-        } catch (IncomplException e) {
-            System.out.println("Could not determine main program expression type due to errors detected before type checking.");
-        } catch (TypeException e) {
-            System.out.println("Type checking error in main program expression: " + e.text);
+        boolean headless = false; // -headless: run without the debugger GUI (AWT is never loaded)
+        boolean writeAsm = false; // -asm: also write the generated assembly to <file>.asm
+        int memSize = 0; // -mem words: memory size of the VM (0: default)
+        boolean growable = false; // -grow: memory of the VM allocated as it is used (headless only)
+        boolean jit = false; // -jit: hot functions compiled to JVM code (headless only)
+        boolean registers = false; // -rvm: register VM backend instead of the stack one (headless, no .fvm)
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-headless")) headless = true;
+            else if (args[i].equals("-asm")) writeAsm = true;
+            else if (args[i].equals("-mem") && i + 1 < args.length) memSize = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-grow")) growable = true;
+            else if (args[i].equals("-jit")) jit = true;
+            else if (args[i].equals("-rvm")) registers = true;
+            else fileName = args[i];
         }
-        System.out.println("You had " + FOOLlib.typeErrors + " type checking errors.\n");
-
-        int frontEndErrors = lexer.lexicalErrors + parser.getNumberOfSyntaxErrors() + symtableVisitor.stErrors + FOOLlib.typeErrors;
-        System.out.println("You had a total of " + frontEndErrors + " front-end errors.\n");
-
-        if (frontEndErrors > 0) System.exit(1);
 
-        System.out.println("Generating code.");
-        String code = new CodeGenerationASTVisitor().visit(ast);
-        BufferedWriter out = new BufferedWriter(new FileWriter(fileName + ".asm"));
-        out.write(code);
-        out.close();
+        Compilation compilation = new Compilation(Paths.get(fileName), System.out, true);
+        if (!compilation.frontEnd()) System.exit(1);
+        compilation.optimize();
+
+        Code code = registers ? compilation.generateRegisterCode() : compilation.generateCode();
+        if (writeAsm) {
+            BufferedWriter out = new BufferedWriter(new FileWriter(fileName + ".asm"));
+            code.forEachLine(line -> {
+                try {
+                    out.write(line);
+                    out.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.close();
+        }
         System.out.println();
 
-        System.out.println("Assembling generated code.");
-        CharStream charsASM = CharStreams.fromFileName(fileName + ".asm");
-        SVMLexer lexerASM = new SVMLexer(charsASM);
-        CommonTokenStream tokensASM = new CommonTokenStream(lexerASM);
-        SVMParser parserASM = new SVMParser(tokensASM);
+        if (registers) {
+            ProgramImage image = compilation.assembleRegisterCode(code);
+            if (image == null) System.exit(1);
+            System.out.println("Running generated code via Register Virtual Machine.");
+            ExecuteRVM vm = new ExecuteRVM(image.code, System.out, memSize);
+            vm.cpu();
+            System.out.printf("\nExecuted %d instructions in %.3f ms (%.0f instructions/s).%n",
+                    vm.getInstructionCount(), vm.getElapsedNanos() / 1e6, vm.instructionsPerSecond());
+            return;
+        }
 
-        parserASM.assembly();
+        ProgramImage image = compilation.assemble(code);
+        if (image == null) System.exit(1);
 
-        // needed only for debug
-        System.out.println("You had: " + lexerASM.lexicalErrors + " lexical errors and " + parserASM.getNumberOfSyntaxErrors() + " syntax errors.\n");
-        if (lexerASM.lexicalErrors + parserASM.getNumberOfSyntaxErrors() > 0) System.exit(1);
+        // binary image: can be run later with "java visualsvm.ExecuteVM <file>.fvm", without compiling again
+        image.write(Paths.get(fileName + ".fvm"));
 
         System.out.println("Running generated code via Stack Virtual Machine.");
-//        ExecuteVM vm = new ExecuteVM(parserASM.code);
-        ExecuteVVM vm = new ExecuteVVM(parserASM.code, parserASM.sourceMap, Files.readAllLines(Paths.get(fileName + ".asm")));
-        vm.cpu();
+        if (headless) {
+            ExecuteVM vm = new ExecuteVM(image.code, image.data, System.out, memSize, growable);
+            if (jit) vm.enableJit(image.labels);
+            vm.cpu();
+            System.out.printf("\nExecuted %d instructions in %.3f ms (%.0f instructions/s), %d garbage collections.%n",
+                    vm.getInstructionCount(), vm.getElapsedNanos() / 1e6, vm.instructionsPerSecond(), vm.getCollections());
+        } else {
+            ExecuteVVM vm = new ExecuteVVM(image, memSize > 0 ? memSize : ExecuteVM.MEMSIZE);
+            vm.cpu();
+        }
 
     }
 }
@@ -4,8 +4,6 @@ import compiler.AST.*;
 import compiler.exc.*;
 import compiler.lib.*;
 
-import static compiler.TypeRels.*;
-
 //visitNode(n) fa il type checking di un Node n e ritorna:
 //- per una espressione, il suo tipo (oggetto BoolTypeNode o IntTypeNode)
 //- per una dichiarazione, "null"; controlla la correttezza interna della dichiarazione
@@ -14,12 +12,19 @@ import static compiler.TypeRels.*;
 //visitSTentry(s) ritorna, per una STentry s, il tipo contenuto al suo interno
 public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeException> {
 
-    TypeCheckEASTVisitor() {
+    private final CompilerContext context;
+    private final TypeRels rels;
+
+    TypeCheckEASTVisitor(CompilerContext c) {
         super(true);
+        context = c;
+        rels = c.typeRels;
     } // enables incomplete tree exceptions
 
-    TypeCheckEASTVisitor(boolean debug) {
+    TypeCheckEASTVisitor(CompilerContext c, boolean debug) {
         super(true, debug);
+        context = c;
+        rels = c.typeRels;
     } // enables print for debugging
 
     //checks that a type object is visitable (not incomplete)
@@ -36,7 +41,8 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
                 visit(dec);
             } catch (IncomplException e) {
             } catch (TypeException e) {
-                System.out.println("Type checking error in a declaration: " + e.text);
+                context.typeErrors++;
+                context.log.println("Type checking error in a declaration: " + e.text);
             }
         return visit(n.exp);
     }
@@ -55,9 +61,10 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
                 visit(dec);
             } catch (IncomplException e) {
             } catch (TypeException e) {
-                System.out.println("Type checking error in a declaration: " + e.text);
+                context.typeErrors++;
+                context.log.println("Type checking error in a declaration: " + e.text);
             }
-        if (!isSubtype(visit(n.exp), ckvisit(n.retType)))
+        if (!rels.isSubtype(visit(n.exp), ckvisit(n.retType)))
             throw new TypeException("Wrong return type for function " + n.id, n.getLine());
         return null;
     }
@@ -65,7 +72,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(VarNode n) throws TypeException {
         if (print) printNode(n, n.id);
-        if (!isSubtype(visit(n.exp), ckvisit(n.getType())))
+        if (!rels.isSubtype(visit(n.exp), ckvisit(n.getType())))
             throw new TypeException("Incompatible value for variable " + n.id, n.getLine());
         return null;
     }
@@ -79,11 +86,11 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(IfNode n) throws TypeException {
         if (print) printNode(n);
-        if (!(isSubtype(visit(n.cond), new BoolTypeNode())))
+        if (!(rels.isSubtype(visit(n.cond), TypeRels.BOOL)))
             throw new TypeException("Non boolean condition in if", n.getLine());
         TypeNode t = visit(n.th);
         TypeNode e = visit(n.el);
-        TypeNode lca = lowestCommonAncestor(t,e);
+        TypeNode lca = rels.lowestCommonAncestor(t,e);
         if(lca == null)
             throw new TypeException("Incompatible types in then-else branches", n.getLine());
         return lca;
@@ -94,9 +101,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         if (print) printNode(n);
         TypeNode l = visit(n.left);
         TypeNode r = visit(n.right);
-        if (!(isSubtype(l, r) || isSubtype(r, l)))
+        if (!(rels.isSubtype(l, r) || rels.isSubtype(r, l)))
             throw new TypeException("Incompatible types in equal", n.getLine());
-        return new BoolTypeNode();
+        return TypeRels.BOOL;
     }
 
     @Override
@@ -104,9 +111,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         if (print) printNode(n);
         TypeNode l = visit(n.left);
         TypeNode r = visit(n.right);
-        if (!(isSubtype(l, r) || isSubtype(r, l)))
+        if (!(rels.isSubtype(l, r) || rels.isSubtype(r, l)))
             throw new TypeException("Incompatible types in less equal", n.getLine());
-        return new BoolTypeNode();
+        return TypeRels.BOOL;
     }
 
     @Override
@@ -114,71 +121,71 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         if (print) printNode(n);
         TypeNode l = visit(n.left);
         TypeNode r = visit(n.right);
-        if (!(isSubtype(l, r) || isSubtype(r, l)))
+        if (!(rels.isSubtype(l, r) || rels.isSubtype(r, l)))
             throw new TypeException("Incompatible types in greater equal", n.getLine());
-        return new BoolTypeNode();
+        return TypeRels.BOOL;
     }
 
     @Override
     public TypeNode visitNode(TimesNode n) throws TypeException {
         if (print) printNode(n);
-        if (!(isSubtype(visit(n.left), new IntTypeNode())
-                && isSubtype(visit(n.right), new IntTypeNode())))
+        if (!(rels.isSubtype(visit(n.left), TypeRels.INT)
+                && rels.isSubtype(visit(n.right), TypeRels.INT)))
             throw new TypeException("Non integers in multiplication", n.getLine());
-        return new IntTypeNode();
+        return TypeRels.INT;
     }
 
     @Override
     public TypeNode visitNode(DivNode n) throws TypeException {
         if (print) printNode(n);
-        if (!(isSubtype(visit(n.left), new IntTypeNode())
-                && isSubtype(visit(n.right), new IntTypeNode())))
+        if (!(rels.isSubtype(visit(n.left), TypeRels.INT)
+                && rels.isSubtype(visit(n.right), TypeRels.INT)))
             throw new TypeException("Non integers in division", n.getLine());
-        return new IntTypeNode();
+        return TypeRels.INT;
     }
 
     @Override
     public TypeNode visitNode(PlusNode n) throws TypeException {
         if (print) printNode(n);
-        if (!(isSubtype(visit(n.left), new IntTypeNode())
-                && isSubtype(visit(n.right), new IntTypeNode())))
+        if (!(rels.isSubtype(visit(n.left), TypeRels.INT)
+                && rels.isSubtype(visit(n.right), TypeRels.INT)))
             throw new TypeException("Non integers in sum", n.getLine());
-        return new IntTypeNode();
+        return TypeRels.INT;
     }
 
     @Override
     public TypeNode visitNode(MinusNode n) throws TypeException {
         if (print) printNode(n);
-        if (!(isSubtype(visit(n.left), new IntTypeNode())
-                && isSubtype(visit(n.right), new IntTypeNode())))
+        if (!(rels.isSubtype(visit(n.left), TypeRels.INT)
+                && rels.isSubtype(visit(n.right), TypeRels.INT)))
             throw new TypeException("Non integers in subtraction", n.getLine());
-        return new IntTypeNode();
+        return TypeRels.INT;
     }
 
     @Override
     public TypeNode visitNode(NotNode n) throws TypeException {
         if (print) printNode(n);
-        if (!isSubtype(visit(n.node), new BoolTypeNode()))
+        if (!rels.isSubtype(visit(n.node), TypeRels.BOOL))
             throw new TypeException("Non boolean in not operator", n.getLine());
-        return new BoolTypeNode();
+        return TypeRels.BOOL;
     }
 
     @Override
     public TypeNode visitNode(AndNode n) throws TypeException {
         if (print) printNode(n);
-        if (!(isSubtype(visit(n.left), new BoolTypeNode())
-                && isSubtype(visit(n.right), new BoolTypeNode())))
+        if (!(rels.isSubtype(visit(n.left), TypeRels.BOOL)
+                && rels.isSubtype(visit(n.right), TypeRels.BOOL)))
             throw new TypeException("Non booleans in logical and", n.getLine());
-        return new BoolTypeNode();
+        return TypeRels.BOOL;
     }
 
     @Override
     public TypeNode visitNode(OrNode n) throws TypeException {
         if (print) printNode(n);
-        if (!(isSubtype(visit(n.left), new BoolTypeNode())
-                && isSubtype(visit(n.right), new BoolTypeNode())))
+        if (!(rels.isSubtype(visit(n.left), TypeRels.BOOL)
+                && rels.isSubtype(visit(n.right), TypeRels.BOOL)))
             throw new TypeException("Non booleans in logical or", n.getLine());
-        return new BoolTypeNode();
+        return TypeRels.BOOL;
     }
 
     @Override
@@ -190,7 +197,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         if (!(at.parlist.size() == n.arglist.size()))
             throw new TypeException("Wrong number of parameters in the invocation of " + n.id, n.getLine());
         for (int i = 0; i < n.arglist.size(); i++)
-            if (!(isSubtype(visit(n.arglist.get(i)), at.parlist.get(i))))
+            if (!(rels.isSubtype(visit(n.arglist.get(i)), at.parlist.get(i))))
                 throw new TypeException("Wrong type for " + (i + 1) + "-th parameter in the invocation of " + n.id, n.getLine());
         return at.ret;
     }
@@ -210,13 +217,13 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(BoolNode n) {
         if (print) printNode(n, n.val.toString());
-        return new BoolTypeNode();
+        return TypeRels.BOOL;
     }
 
     @Override
     public TypeNode visitNode(IntNode n) {
         if (print) printNode(n, n.val.toString());
-        return new IntTypeNode();
+        return TypeRels.INT;
     }
 
     // OBJECT-ORIENTED
@@ -224,21 +231,21 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(ClassNode n) throws TypeException {
         if (print) printNode(n);
+        rels.addClass(n.id, n.superEntry != null ? n.superId : null);
         if (n.superId != null && n.superEntry != null) {
-            superType.put(n.id, n.superId);
 
             ClassTypeNode parentCT = (ClassTypeNode) n.superEntry.type;
             ClassTypeNode type = (ClassTypeNode) n.getType();
 
             for(FieldNode field : n.fields){
                 int i = -field.offset - 1;
-                if(i<parentCT.allFields.size() && !isSubtype(ckvisit(type.allFields.get(i)), ckvisit(parentCT.allFields.get(i))))
+                if(i<parentCT.allFields.size() && !rels.isSubtype(ckvisit(type.allFields.get(i)), ckvisit(parentCT.allFields.get(i))))
                     throw new TypeException("Wrong override for field " + field.id, n.getLine());
             }
 
             for(MethodNode method : n.methods){
                 int i = method.offset;
-                if(i<parentCT.allMethods.size() && !isSubtype(ckvisit(type.allMethods.get(i)), ckvisit(parentCT.allMethods.get(i))))
+                if(i<parentCT.allMethods.size() && !rels.isSubtype(ckvisit(type.allMethods.get(i)), ckvisit(parentCT.allMethods.get(i))))
                     throw new TypeException("Wrong override for method " + method.id, n.getLine());
             }
         }
@@ -255,9 +262,10 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
                 visit(dec);
             } catch (IncomplException e) {
             } catch (TypeException e) {
-                System.out.println("Type checking error in a declaration: " + e.text);
+                context.typeErrors++;
+                context.log.println("Type checking error in a declaration: " + e.text);
             }
-        if (!isSubtype(visit(n.exp), ckvisit(n.retType)))
+        if (!rels.isSubtype(visit(n.exp), ckvisit(n.retType)))
             throw new TypeException("Wrong return type for function " + n.id, n.getLine());
         return null;
     }
@@ -271,14 +279,14 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         if (!(at.parlist.size() == n.arglist.size()))
             throw new TypeException("Wrong number of parameters in the invocation of " + n.methodId, n.getLine());
         for (int i = 0; i < n.arglist.size(); i++)
-            if (!(isSubtype(visit(n.arglist.get(i)), at.parlist.get(i))))
+            if (!(rels.isSubtype(visit(n.arglist.get(i)), at.parlist.get(i))))
                 throw new TypeException("Wrong type for " + (i + 1) + "-th parameter in the invocation of " + n.methodId, n.getLine());
         return at.ret;
     }
 
     @Override
     public TypeNode visitNode(EmptyNode n) {
-        return new EmptyTypeNode();
+        return TypeRels.EMPTY;
     }
 
     @Override
@@ -290,9 +298,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         if (!(at.allFields.size() == n.arglist.size()))
             throw new TypeException("Wrong number of parameters in the invocation of " + n.id, n.getLine());
         for (int i = 0; i < n.arglist.size(); i++)
-            if (!(isSubtype(visit(n.arglist.get(i)), at.allFields.get(i))))
+            if (!(rels.isSubtype(visit(n.arglist.get(i)), at.allFields.get(i))))
                 throw new TypeException("Wrong type for " + (i + 1) + "-th parameter in the invocation of " + n.id, n.getLine());
-        return new RefTypeNode(n.id);
+        return rels.refType(n.id);
     }
 
 // gestione tipi incompleti	(se lo sono lancia eccezione)
@@ -3,16 +3,96 @@ package compiler;
 import compiler.AST.*;
 import compiler.lib.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
+// relazioni tra tipi di una compilazione (gerarchia delle classi inclusa)
+// le classi hanno un numero, in ordine di dichiarazione (il padre prima dei figli); la gerarchia e' codificata
+// a intervalli: la sottoclasse ha il numero di preordine nell'intervallo [pre, pre + size) della superclasse,
+// calcolato alla prima domanda dopo una nuova classe, cosi' che isSubtype tra classi e' O(1)
+// i tipi sono condivisi: int, bool e null hanno un'unica istanza, i tipi classe e funzionali una per compilazione
+// (hash-consing), cosi' che tipi uguali sono lo stesso oggetto e il confronto e' per identita'
 public class TypeRels {
 
-    public static Map<String, String> superType = new HashMap<>();
+    public static final IntTypeNode INT = new IntTypeNode();
+    public static final BoolTypeNode BOOL = new BoolTypeNode();
+    public static final EmptyTypeNode EMPTY = new EmptyTypeNode();
+
+    private final Map<String, Integer> classIds = new HashMap<>();
+    private final List<String> classNames = new ArrayList<>();
+    private final List<Integer> superClasses = new ArrayList<>(); // -1: nessuna superclasse
+    private int[] pre = new int[0]; // numero di preordine di ogni classe
+    private int[] size = new int[0]; // classi nel sottoalbero di ogni classe (essa compresa)
+    private boolean encoded = true;
+    private final Map<Long, RefTypeNode> lca = new HashMap<>(); // per coppia di numeri di classe
+    private final Map<String, RefTypeNode> refTypes = new HashMap<>();
+    private final Map<List<TypeNode>, ArrowTypeNode> arrowTypes = new HashMap<>(); // per [ret, par1, ..., parN]
+
+    // tipo della classe "id", unico nella compilazione
+    public RefTypeNode refType(String id) {
+        return refTypes.computeIfAbsent(id, RefTypeNode::new);
+    }
+
+    // tipo funzionale unico nella compilazione; i tipi componenti sono condivisi, quindi la chiave li confronta per identita'
+    public ArrowTypeNode arrowType(List<TypeNode> parlist, TypeNode ret) {
+        List<TypeNode> key = new ArrayList<>(parlist.size() + 1);
+        key.add(ret);
+        key.addAll(parlist);
+        return arrowTypes.computeIfAbsent(key, k -> new ArrowTypeNode(k.subList(1, k.size()), ret));
+    }
+
+    // registra una classe dichiarata, con la sua superclasse (null se non ne ha)
+    public void addClass(String id, String superId) {
+        Integer superClass = superId == null ? null : classIds.get(superId);
+        classIds.put(id, classNames.size());
+        classNames.add(id);
+        superClasses.add(superClass == null ? -1 : superClass);
+        encoded = false;
+        lca.clear();
+    }
+
+    private void encode() {
+        int n = classNames.size();
+        pre = new int[n];
+        size = new int[n];
+        Arrays.fill(size, 1);
+        for (int c = n - 1; c >= 0; c--) // i figli hanno numeri maggiori del padre
+            if (superClasses.get(c) >= 0) size[superClasses.get(c)] += size[c];
+        int[] next = new int[n]; // preordine del prossimo figlio di ogni classe
+        int roots = 0;
+        for (int c = 0; c < n; c++) {
+            int s = superClasses.get(c);
+            if (s < 0) {
+                pre[c] = roots;
+                roots += size[c];
+            } else {
+                pre[c] = next[s];
+                next[s] += size[c];
+            }
+            next[c] = pre[c] + 1;
+        }
+        encoded = true;
+    }
+
+    private int classId(String id) {
+        Integer c = classIds.get(id);
+        return c == null ? -1 : c;
+    }
+
+    // valuta se la classe "a" e' la classe "b" o una sua sottoclasse
+    public boolean isSubclass(String a, String b) {
+        int ca = classId(a), cb = classId(b);
+        if (ca < 0 || cb < 0) return a.equals(b);
+        if (!encoded) encode();
+        return pre[cb] <= pre[ca] && pre[ca] < pre[cb] + size[cb];
+    }
 
     // valuta se il tipo "a" e' <= al tipo "b", dove "a" e "b" sono tipi di base: IntTypeNode o BoolTypeNode
-    public static boolean isSubtype(TypeNode a, TypeNode b) {
+    public boolean isSubtype(TypeNode a, TypeNode b) {
+        if (a == b) return true;
         if (a instanceof EmptyTypeNode && b instanceof RefTypeNode) return true;
         if (a instanceof ArrowTypeNode aa && b instanceof ArrowTypeNode bb) {
             if (!isSubtype(aa.ret, bb.ret)) return false;
@@ -22,29 +102,31 @@ public class TypeRels {
             }
             return true;
         }
-        if(a instanceof RefTypeNode aa && b instanceof RefTypeNode bb){
-            String aaClass = aa.id;
-            while(aaClass != null && !aaClass.equals(bb.id))
-                aaClass = superType.get(aaClass);
-            return aaClass != null;
-        }
+        if (a instanceof RefTypeNode aa && b instanceof RefTypeNode bb) return isSubclass(aa.id, bb.id);
         return a.getClass().equals(b.getClass()) || ((a instanceof BoolTypeNode) && (b instanceof IntTypeNode));
     }
 
-    public static TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
+    // antenato comune piu' vicino di due classi, null se non ne hanno; memorizzato per coppia
+    private RefTypeNode lowestCommonAncestor(String a, String b) {
+        int ca = classId(a), cb = classId(b);
+        if (ca < 0 || cb < 0) return a.equals(b) ? refType(a) : null;
+        return lca.computeIfAbsent((long) ca << 32 | cb, k -> {
+            for (int c = ca; c >= 0; c = superClasses.get(c))
+                if (isSubclass(b, classNames.get(c))) return refType(classNames.get(c));
+            return null;
+        });
+    }
+
+    public TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
         if (a instanceof EmptyTypeNode) return b;
         if (b instanceof EmptyTypeNode) return a;
         if (a instanceof RefTypeNode aa && b instanceof RefTypeNode bb) {
-            while (true) {
-                if (isSubtype(bb, aa)) return aa;
-                String superId = superType.get(aa.id);
-                if (superId != null) aa = new RefTypeNode(superId);
-                else break;
-            }
+            RefTypeNode ancestor = lowestCommonAncestor(aa.id, bb.id);
+            if (ancestor != null) return ancestor;
         }
-        if(isSubtype(a, new IntTypeNode()) && isSubtype(b, new IntTypeNode())){
-            if(a instanceof IntTypeNode || b instanceof IntTypeNode) return new IntTypeNode();
-            return new BoolTypeNode();
+        if(isSubtype(a, INT) && isSubtype(b, INT)){
+            if(a instanceof IntTypeNode || b instanceof IntTypeNode) return INT;
+            return BOOL;
         }
         return null;
     }
@@ -0,0 +1,30 @@
+package compiler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// tavola virtuale di una classe: i campi e i metodi che dichiara (nuovi o ridefiniti), per numero di simbolo,
+// e quella della superclasse, condivisa invece che copiata. Un membro ereditato e' quindi la stessa STentry
+// nella tavola della superclasse e in quella della sottoclasse, un membro ridefinito ne ha una nuova
+public class VirtualTable {
+
+    final VirtualTable parent; // null se la classe non ne estende un'altra
+    private final Map<Integer, STentry> declared = new HashMap<>();
+
+    VirtualTable(VirtualTable parent) {
+        this.parent = parent;
+    }
+
+    // membro della classe, dichiarato o ereditato, null se non c'e'
+    public STentry get(int sym) {
+        for (VirtualTable t = this; t != null; t = t.parent) {
+            STentry entry = t.declared.get(sym);
+            if (entry != null) return entry;
+        }
+        return null;
+    }
+
+    void put(int sym, STentry entry) {
+        declared.put(sym, entry);
+    }
+}
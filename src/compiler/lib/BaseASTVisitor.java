@@ -174,6 +174,10 @@ public class BaseASTVisitor<S, E extends Exception> {
         throw new UnimplException();
     }
 
+    public S visitNode(FieldAccessNode n) throws E {
+        throw new UnimplException();
+    }
+
     public S visitNode(NewNode n) throws E {
         throw new UnimplException();
     }
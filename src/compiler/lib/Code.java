@@ -0,0 +1,41 @@
+package compiler.lib;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+/**
+ * Generated code as a rope of assembly lines: joining fragments costs O(number of fragments),
+ * whatever their length, and the lines are produced only once, in order, by forEachLine.
+ */
+public final class Code {
+
+    private final Object[] parts; // each part is a line (String) or a nested fragment (Code)
+
+    Code(Object[] parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * Visits the lines in order; iterative, since fragments accumulated in loops nest as deep as the loop is long.
+     */
+    public void forEachLine(Consumer<String> sink) {
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Object part = pending.pop();
+            if (part instanceof Code c) {
+                for (int i = c.parts.length - 1; i >= 0; i--) pending.push(c.parts[i]);
+            } else {
+                sink.accept((String) part);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        forEachLine(line -> sb.append(sb.isEmpty() ? "" : "\n").append(line));
+        return sb.toString();
+    }
+}
@@ -14,35 +14,25 @@ public class FOOLlib {
         return Character.toLowerCase(s.charAt(0)) + s.substring(1);
     }
 
-    public static int typeErrors = 0;
-
-    // crea un'unica stringa a partire da un insieme di stringhe concatenadole e
-    // introducendo, all'interno, dei newline "\n" come separatore tra le stringhe
-    public static String nlJoin(String... lines) { //argomenti null ignorati
-        String code = null;
-        for (String line : lines) if (line != null) code = (code == null ? "" : code + "\n") + line;
-        return code;
-    }
-
-    private static int labCount = 0;
-
-    public static String freshLabel() {
-        return "label" + (labCount++);
-    }
-
-    private static int funlabCount = 0;
-
-    public static String freshFunLabel() {
-        return "function" + (funlabCount++);
-    }
-
-    private static String funCode = null;
-
-    public static void putCode(String c) {
-        funCode = nlJoin(funCode, "", c); //linea vuota di separazione prima di codice funzione
-    }
-
-    public static String getCode() {
-        return funCode;
+    // crea un unico frammento di codice a partire da un insieme di linee, mantenendone l'ordine
+    public static Code nlJoin(String... lines) { //argomenti null ignorati
+        return join(lines);
+    }
+
+    // crea un unico frammento di codice a partire da un insieme di frammenti, mantenendone l'ordine;
+    // nessuna copia: il costo e' proporzionale al numero di argomenti. Linee e frammenti si mescolano
+    // raggruppando le linee con nlJoin(String...)
+    public static Code nlJoin(Code... fragments) { //argomenti null ignorati
+        return join(fragments);
+    }
+
+    private static Code join(Object[] parts) {
+        int n = 0;
+        for (Object part : parts) if (part != null) n++;
+        if (n == 0) return null;
+        Object[] joined = new Object[n];
+        n = 0;
+        for (Object part : parts) if (part != null) joined[n++] = part;
+        return new Code(joined);
     }
 }
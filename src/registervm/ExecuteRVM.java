@@ -0,0 +1,298 @@
+package registervm;
+
+import java.io.PrintStream;
+
+/**
+ * Register Virtual Machine: target of RegisterCodeGenerationASTVisitor, alternative to the stack machine of visualsvm.
+ * <p>
+ * Every function has a frame of virtual registers in memory, rN being the word at $fp + N:
+ * r0 access link, r1 return address, r2 control link (caller $fp), then parameters, local declarations
+ * and temporaries. Instructions name their operands, so an expression costs one instruction per operator
+ * and variables of the current frame are read where they are, without being pushed first.
+ * A call passes the callee frame base as a register of the caller ("register window"): the caller writes
+ * access link and arguments (last one first) straight into the callee r0 and r3..., and the result comes
+ * back in r0.
+ * <p>
+ * Frames grow from address 0 (the main program frame) upwards, the heap from the end of memory downwards;
+ * objects keep the layout of the stack machine (dispatch pointer at the object address, field i at
+ * address - 1 - i). The heap is not garbage collected: memory is exhausted when heap and frames meet.
+ */
+public class ExecuteRVM {
+
+    public static final int MEMSIZE = 10000; // default memory size
+
+    // opcodes (operands in OPERANDS)
+    public static final int LI = 1;     // rd imm          rd = imm
+    public static final int MOV = 2;    // rd rs           rd = rs
+    public static final int ADD = 3;    // rd ra rb        rd = ra + rb
+    public static final int SUB = 4;
+    public static final int MUL = 5;
+    public static final int DIV = 6;
+    public static final int SEQ = 7;    // rd ra rb        rd = ra == rb ? 1 : 0
+    public static final int SLE = 8;    // rd ra rb        rd = ra <= rb ? 1 : 0
+    public static final int AND = 9;    // rd ra rb        booleans (0 or 1)
+    public static final int OR = 10;
+    public static final int NOT = 11;   // rd rs           rd = 1 - rs
+    public static final int LD = 12;    // rd address      rd = memory[address]
+    public static final int LW = 13;    // rd rs offset    rd = memory[rs + offset]
+    public static final int LFP = 14;   // rd              rd = $fp
+    public static final int B = 15;     // label
+    public static final int BEQ = 16;   // ra rb label     jumps if ra == rb
+    public static final int BNE = 17;   // ra rb label     jumps if ra != rb
+    public static final int BLE = 18;   // ra rb label     jumps if ra <= rb
+    public static final int BGT = 19;   // ra rb label     jumps if ra > rb
+    public static final int BT = 20;    // rs label        jumps if rs == 1
+    public static final int BF = 21;    // rs label        jumps if rs == 0
+    public static final int CALL = 22;  // rf base         calls the address in rf with its frame at $fp + base
+    public static final int CALLI = 23; // label base      same, to a known address
+    public static final int ENTER = 24; // size            frame size of the function, checked against the heap
+    public static final int RET = 25;   // rs              returns rs (into r0, i.e. the "base" register of the caller)
+    public static final int PRINT = 26; // rs
+    public static final int NEW = 27;   // rd rs n         object with dispatch pointer rs and fields rs+n ... rs+1
+    public static final int TABLE = 28; // rd n label...   dispatch table
+    public static final int HALT = 29;
+
+    static final String[] OPERANDS = {null, "ri", "rr", "rrr", "rrr", "rrr", "rrr", "rrr", "rrr", "rrr", "rrr",
+            "rr", "ri", "rri", "r", "l", "rrl", "rrl", "rrl", "rrl", "rl", "rl", "ri", "li", "i", "r", "r", "rri",
+            "r*", ""};
+
+    private final int[] code;
+    private final int memSize;
+    private final PrintStream out;
+    private int[] memory;
+
+    private int ip;
+    private int fp;
+    private int hp;
+    private int top; // highest frame end so far: the heap may not go below it
+
+    private long instructionCount = 0;
+    private long elapsedNanos = 0;
+
+    public ExecuteRVM(int[] code, PrintStream out) {
+        this(code, out, MEMSIZE);
+    }
+
+    /**
+     * memSize: number of memory words (0 for the default).
+     */
+    public ExecuteRVM(int[] code, PrintStream out, int memSize) {
+        this.code = code;
+        this.out = out;
+        this.memSize = memSize > 0 ? memSize : MEMSIZE;
+        reset();
+    }
+
+    public final void reset() {
+        memory = new int[memSize];
+        ip = 0;
+        fp = 0;
+        hp = memSize;
+        top = 0;
+        instructionCount = 0;
+        elapsedNanos = 0;
+    }
+
+    /**
+     * Runs the program until halt (or memory exhausted).
+     */
+    public void cpu() {
+        long start = System.nanoTime();
+        try {
+            run();
+        } finally {
+            elapsedNanos += System.nanoTime() - start;
+        }
+    }
+
+    // registers in local variables, written back when the loop exits
+    private void run() {
+        final int[] c = code;
+        final int[] mem = memory;
+        int ip = this.ip, fp = this.fp, hp = this.hp, top = this.top;
+        long count = 0;
+        String fault = null;
+        int v, n;
+        try {
+            loop:
+            while (true) {
+                count++;
+                switch (c[ip]) {
+                    case LI:
+                        mem[fp + c[ip + 1]] = c[ip + 2];
+                        ip += 3;
+                        break;
+                    case MOV:
+                        mem[fp + c[ip + 1]] = mem[fp + c[ip + 2]];
+                        ip += 3;
+                        break;
+                    case ADD:
+                        mem[fp + c[ip + 1]] = mem[fp + c[ip + 2]] + mem[fp + c[ip + 3]];
+                        ip += 4;
+                        break;
+                    case SUB:
+                        mem[fp + c[ip + 1]] = mem[fp + c[ip + 2]] - mem[fp + c[ip + 3]];
+                        ip += 4;
+                        break;
+                    case MUL:
+                        mem[fp + c[ip + 1]] = mem[fp + c[ip + 2]] * mem[fp + c[ip + 3]];
+                        ip += 4;
+                        break;
+                    case DIV:
+                        mem[fp + c[ip + 1]] = mem[fp + c[ip + 2]] / mem[fp + c[ip + 3]];
+                        ip += 4;
+                        break;
+                    case SEQ:
+                        mem[fp + c[ip + 1]] = mem[fp + c[ip + 2]] == mem[fp + c[ip + 3]] ? 1 : 0;
+                        ip += 4;
+                        break;
+                    case SLE:
+                        mem[fp + c[ip + 1]] = mem[fp + c[ip + 2]] <= mem[fp + c[ip + 3]] ? 1 : 0;
+                        ip += 4;
+                        break;
+                    case AND:
+                        mem[fp + c[ip + 1]] = mem[fp + c[ip + 2]] + mem[fp + c[ip + 3]] == 2 ? 1 : 0;
+                        ip += 4;
+                        break;
+                    case OR:
+                        mem[fp + c[ip + 1]] = mem[fp + c[ip + 2]] + mem[fp + c[ip + 3]] == 0 ? 0 : 1;
+                        ip += 4;
+                        break;
+                    case NOT:
+                        mem[fp + c[ip + 1]] = 1 - mem[fp + c[ip + 2]];
+                        ip += 3;
+                        break;
+                    case LD:
+                        mem[fp + c[ip + 1]] = mem[c[ip + 2]];
+                        ip += 3;
+                        break;
+                    case LW:
+                        mem[fp + c[ip + 1]] = mem[mem[fp + c[ip + 2]] + c[ip + 3]];
+                        ip += 4;
+                        break;
+                    case LFP:
+                        mem[fp + c[ip + 1]] = fp;
+                        ip += 2;
+                        break;
+                    case B:
+                        ip = c[ip + 1];
+                        break;
+                    case BEQ:
+                        ip = mem[fp + c[ip + 1]] == mem[fp + c[ip + 2]] ? c[ip + 3] : ip + 4;
+                        break;
+                    case BNE:
+                        ip = mem[fp + c[ip + 1]] != mem[fp + c[ip + 2]] ? c[ip + 3] : ip + 4;
+                        break;
+                    case BLE:
+                        ip = mem[fp + c[ip + 1]] <= mem[fp + c[ip + 2]] ? c[ip + 3] : ip + 4;
+                        break;
+                    case BGT:
+                        ip = mem[fp + c[ip + 1]] > mem[fp + c[ip + 2]] ? c[ip + 3] : ip + 4;
+                        break;
+                    case BT:
+                        ip = mem[fp + c[ip + 1]] == 1 ? c[ip + 2] : ip + 3;
+                        break;
+                    case BF:
+                        ip = mem[fp + c[ip + 1]] == 0 ? c[ip + 2] : ip + 3;
+                        break;
+                    case CALL:
+                        v = fp + c[ip + 2];
+                        mem[v + 1] = ip + 3;
+                        mem[v + 2] = fp;
+                        ip = mem[fp + c[ip + 1]];
+                        fp = v;
+                        break;
+                    case CALLI:
+                        v = fp + c[ip + 2];
+                        mem[v + 1] = ip + 3;
+                        mem[v + 2] = fp;
+                        ip = c[ip + 1];
+                        fp = v;
+                        break;
+                    case ENTER:
+                        v = fp + c[ip + 1];
+                        ip += 2;
+                        if (v > top) {
+                            top = v;
+                            if (top > hp) {
+                                fault = "Segmentation fault";
+                                break loop;
+                            }
+                        }
+                        break;
+                    case RET:
+                        v = mem[fp + c[ip + 1]];
+                        ip = mem[fp + 1];
+                        mem[fp] = v;
+                        fp = mem[fp + 2];
+                        break;
+                    case PRINT:
+                        out.println(mem[fp + c[ip + 1]]);
+                        ip += 2;
+                        break;
+                    case NEW:
+                        n = c[ip + 3];
+                        if (hp - (n + 1) < top) {
+                            fault = "Out of memory";
+                            break loop;
+                        }
+                        hp -= n + 1;
+                        v = fp + c[ip + 2];
+                        mem[hp + n] = mem[v];
+                        System.arraycopy(mem, v + 1, mem, hp, n); // field i at hp + n - 1 - i
+                        mem[fp + c[ip + 1]] = hp + n;
+                        ip += 4;
+                        break;
+                    case TABLE:
+                        n = c[ip + 2];
+                        if (hp - n < top) {
+                            fault = "Out of memory";
+                            break loop;
+                        }
+                        hp -= n;
+                        System.arraycopy(c, ip + 3, mem, hp, n);
+                        mem[fp + c[ip + 1]] = hp;
+                        ip += 3 + n;
+                        break;
+                    case HALT:
+                        ip++;
+                        break loop;
+                    default:
+                        fault = "Invalid opcode " + c[ip] + " at " + ip;
+                        break loop;
+                }
+            }
+        } finally {
+            this.ip = ip;
+            this.fp = fp;
+            this.hp = hp;
+            this.top = top;
+            instructionCount += count;
+        }
+        if (fault != null) out.println(fault);
+    }
+
+    public int getIp() {
+        return ip;
+    }
+
+    public int getFp() {
+        return fp;
+    }
+
+    public int getHp() {
+        return hp;
+    }
+
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double instructionsPerSecond() {
+        return elapsedNanos == 0 ? 0 : instructionCount * 1e9 / elapsedNanos;
+    }
+}
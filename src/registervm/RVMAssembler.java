@@ -0,0 +1,146 @@
+package registervm;
+
+import visualsvm.ProgramImage;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static java.util.Map.entry;
+
+/**
+ * In-memory assembler for the register VM (see ExecuteRVM): one instruction or label definition per line,
+ * operands separated by blanks. Registers are written rN, immediates as integers, jump targets as labels;
+ * "table" takes any number of labels.
+ */
+public class RVMAssembler {
+
+    // operands of each instruction: r register, i integer, l label, * any number of labels (preceded by their count)
+    private static final Map<String, Integer> OPCODES = Map.ofEntries(
+            entry("li", ExecuteRVM.LI),
+            entry("mov", ExecuteRVM.MOV),
+            entry("add", ExecuteRVM.ADD),
+            entry("sub", ExecuteRVM.SUB),
+            entry("mul", ExecuteRVM.MUL),
+            entry("div", ExecuteRVM.DIV),
+            entry("seq", ExecuteRVM.SEQ),
+            entry("sle", ExecuteRVM.SLE),
+            entry("and", ExecuteRVM.AND),
+            entry("or", ExecuteRVM.OR),
+            entry("not", ExecuteRVM.NOT),
+            entry("ld", ExecuteRVM.LD),
+            entry("lw", ExecuteRVM.LW),
+            entry("lfp", ExecuteRVM.LFP),
+            entry("b", ExecuteRVM.B),
+            entry("beq", ExecuteRVM.BEQ),
+            entry("bne", ExecuteRVM.BNE),
+            entry("ble", ExecuteRVM.BLE),
+            entry("bgt", ExecuteRVM.BGT),
+            entry("bt", ExecuteRVM.BT),
+            entry("bf", ExecuteRVM.BF),
+            entry("call", ExecuteRVM.CALL),
+            entry("calli", ExecuteRVM.CALLI),
+            entry("enter", ExecuteRVM.ENTER),
+            entry("ret", ExecuteRVM.RET),
+            entry("print", ExecuteRVM.PRINT),
+            entry("new", ExecuteRVM.NEW),
+            entry("table", ExecuteRVM.TABLE),
+            entry("halt", ExecuteRVM.HALT)
+    );
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern REGISTER = Pattern.compile("r[0-9]+");
+    private static final Pattern INTEGER = Pattern.compile("-?[0-9]+");
+
+    private int[] code = new int[1024];
+    private int[] sourceMap = new int[1024];
+    private int size = 0;
+    private final List<String> source = new ArrayList<>();
+    private final Map<String, Integer> labelDef = new HashMap<>();
+    private final List<String> labelRefs = new ArrayList<>(); // label referenced by the code word at labelRefAddresses[i]
+    private final List<Integer> labelRefAddresses = new ArrayList<>();
+    private final PrintStream out; // error messages
+    public int errors = 0;
+
+    public RVMAssembler(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Assembles one line: blank, "label:" or an instruction with its operands.
+     */
+    public void line(String line) {
+        int lineNumber = source.size();
+        source.add(line);
+        String[] tokens = WHITESPACE.split(line.trim());
+        if (tokens[0].isEmpty()) return;
+        if (tokens.length == 1 && tokens[0].endsWith(":")) {
+            if (labelDef.put(tokens[0].substring(0, tokens[0].length() - 1), size) != null)
+                error(lineNumber, "label " + tokens[0] + " defined twice");
+            return;
+        }
+        Integer opcode = OPCODES.get(tokens[0]);
+        String operands = opcode == null ? null : ExecuteRVM.OPERANDS[opcode];
+        boolean variadic = operands != null && operands.endsWith("*");
+        if (opcode == null || (variadic ? tokens.length < operands.length() : tokens.length != operands.length() + 1)) {
+            error(lineNumber, "invalid instruction \"" + line.trim() + "\"");
+            return;
+        }
+        emit(opcode, lineNumber);
+        for (int i = 1; i < tokens.length; i++) {
+            char kind = i - 1 < operands.length() ? operands.charAt(i - 1) : '*';
+            if (kind == '*') {
+                if (i == operands.length()) emit(tokens.length - i, lineNumber); // count of the labels
+                kind = 'l';
+            }
+            String operand = tokens[i];
+            if (kind == 'r' && REGISTER.matcher(operand).matches()) {
+                emit(Integer.parseInt(operand.substring(1)), lineNumber);
+            } else if (kind == 'i' && INTEGER.matcher(operand).matches()) {
+                emit(Integer.parseInt(operand), lineNumber);
+            } else if (kind == 'l' && !REGISTER.matcher(operand).matches() && !INTEGER.matcher(operand).matches()) {
+                labelRefAddresses.add(size);
+                labelRefs.add(operand);
+                emit(0, lineNumber);
+            } else {
+                error(lineNumber, "invalid operand " + operand + " in \"" + line.trim() + "\"");
+                emit(0, lineNumber);
+            }
+        }
+        if (variadic && tokens.length == operands.length()) emit(0, lineNumber); // no labels
+    }
+
+    private void emit(int word, int lineNumber) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+            sourceMap = Arrays.copyOf(sourceMap, size * 2);
+        }
+        code[size] = word;
+        sourceMap[size] = lineNumber;
+        size++;
+    }
+
+    private void error(int lineNumber, String message) {
+        out.println("Assembly error at line " + (lineNumber + 1) + ": " + message);
+        errors++;
+    }
+
+    /**
+     * Resolves label references and returns the assembled program.
+     */
+    public ProgramImage assemble() {
+        for (int i = 0; i < labelRefs.size(); i++) {
+            Integer address = labelDef.get(labelRefs.get(i));
+            if (address == null) {
+                error(sourceMap[labelRefAddresses.get(i)], "undefined label " + labelRefs.get(i));
+                continue;
+            }
+            code[labelRefAddresses.get(i)] = address;
+        }
+        return new ProgramImage(Arrays.copyOf(code, size), Arrays.copyOf(sourceMap, size), labelDef, source);
+    }
+}
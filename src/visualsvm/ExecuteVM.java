@@ -0,0 +1,955 @@
+package visualsvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless Stack Virtual Machine: executes the code produced by SVMParser without any GUI.
+ * The debugger (ExecuteVVM) drives the same engine one step at a time through step().
+ * <p>
+ * Objects are allocated by the "new" instruction on a garbage collected heap. SVM words carry no type,
+ * so the collector is a conservative, non-moving mark and sweep: any stack word (or $tm) equal to the
+ * address of an allocated object keeps it alive, and objects are never moved, since a word that only
+ * looks like a pointer could not be updated. The heap starts at the value of $hp at the first "new"
+ * (below it: the data segment of the program, with the dispatch tables, never collected); every block
+ * begins with a header holding its size in words (header included), negated for free blocks. Free blocks
+ * are reused first fit, before $hp is raised; trailing free blocks are given back to the stack by lowering $hp.
+ * A collection runs when no free block fits and $hp would pass a limit set after the previous one, measured
+ * from the heap base: the live words plus room for as many new ones (at least HEAP_GROWTH). The heap then stays
+ * proportional to the live objects, however many are allocated and dropped, and garbage is reclaimed before
+ * the heap reaches the stack; a collection also runs when the stack is about to overwrite the heap.
+ */
+public class ExecuteVM {
+
+    /**
+     * Snapshot of the registers (memory excluded), garbage collector ones included.
+     */
+    public record Registers(int ip, int sp, int fp, int hp, int ra, int tm, int heapBase, int heapLimit) {
+    }
+
+    /**
+     * Virtual call site (the address of its CALLVIRT superinstruction) with the hits and misses of its inline cache.
+     */
+    public record CallSite(int address, long hits, long misses) {
+        public double hitRate() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+    }
+
+    public static final int MEMSIZE = 10000; // default memory size
+    public static final int CODESIZE = 10000; // initial code size of SVMParser, grown as needed
+    public static final int GROWABLE_MEMSIZE = 1 << 30; // default memory size (address space) when growable
+    public static final int HEAP_GROWTH = 1000; // minimum room for new objects, beyond the live ones, after a collection
+    private static final int SEGMENT_SIZE = 1024; // initial size of the heap and stack segments when growable
+
+    private final int[] code;
+    private final int[] data; // data segment, at address 0 (the heap follows it)
+    private int[] decoded; // see decode(), built at the first run()
+    // inline caches of the virtual call sites, by address (see CALLVIRT): dispatch pointer (-1: empty) and target
+    private int[] cacheKey, cacheTarget;
+    private long[] cacheHits, cacheMisses;
+    private final int memSize;
+    // growable: memory holds only the low addresses [0, memory.length) (heap) and stack the high ones
+    // [memSize - stack.length, memSize); both are enlarged when written beyond their end, so that only the
+    // memory actually used is allocated (addresses never change, since words holding addresses cannot be told apart)
+    private final boolean growable;
+    private int[] memory;
+    private int[] stack;
+
+    private int ip = 0;
+    private int sp; // punta al top dello stack
+    private int tm;
+    private int hp = 0;
+    private int ra;
+    private int fp;
+
+    private final PrintStream out;
+    private VMObserver observer;
+    private Jit jit; // null: interpreter only
+    private final int[] jitRegisters = new int[6]; // ip, sp, fp, hp, ra, tm exchanged with compiled code
+
+    private long instructionCount = 0;
+    private long elapsedNanos = 0;
+
+    private int heapBase = -1; // first block of the garbage collected heap, fixed at the first "new"
+    private int heapLimit; // $hp may not grow beyond it without a garbage collection
+    private int[] freeBlocks = new int[64]; // free blocks in address order, derived from the headers
+    private int freeCount = 0;
+    private boolean freeBlocksValid = false; // false after a reset or a restore of the registers
+    private int collections = 0;
+    private long reclaimedWords = 0;
+
+    /**
+     * Runs a program image (see ProgramImage) headless:
+     * java visualsvm.ExecuteVM [-mem words] [-grow] [-jit | -jitcheck] [-calls] program.fvm
+     * -jit compiles hot functions to JVM classes (see Jit); -jitcheck runs the program both interpreted and
+     * with every function compiled at once, and fails unless output, instruction count and registers are the same;
+     * -calls lists the inline cache hit rate of every virtual call site.
+     */
+    public static void main(String[] args) throws Exception {
+        String image = null;
+        int memSize = 0; // 0: default for the mode
+        boolean growable = false, jit = false, jitCheck = false, calls = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-mem") && i + 1 < args.length) memSize = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-grow")) growable = true;
+            else if (args[i].equals("-jit")) jit = true;
+            else if (args[i].equals("-jitcheck")) jitCheck = true;
+            else if (args[i].equals("-calls")) calls = true;
+            else if (image == null) image = args[i];
+            else image = "";
+        }
+        if (image == null || image.isEmpty()) {
+            System.err.println("Usage: java visualsvm.ExecuteVM [-mem words] [-grow] [-jit | -jitcheck] [-calls] <program image>");
+            System.exit(2);
+        }
+        ProgramImage program = ProgramImage.load(Paths.get(image));
+        if (jitCheck) {
+            System.exit(checkJit(program, memSize) ? 0 : 1);
+        }
+        ExecuteVM vm = new ExecuteVM(program.code, program.data, System.out, memSize, growable);
+        if (jit) vm.enableJit(program.labels);
+        vm.cpu();
+        System.err.printf("Executed %d instructions in %.3f ms (%.0f instructions/s), %d garbage collections, %d memory words allocated.%n",
+                vm.getInstructionCount(), vm.getElapsedNanos() / 1e6, vm.instructionsPerSecond(), vm.getCollections(),
+                vm.getAllocatedWords());
+        if (vm.jit != null) System.err.printf("%d functions compiled to JVM code.%n", vm.jit.getCompiledFunctions());
+        List<CallSite> sites = vm.getCallSites();
+        long hits = 0, misses = 0;
+        for (CallSite site : sites) {
+            hits += site.hits();
+            misses += site.misses();
+        }
+        if (hits + misses > 0)
+            System.err.printf("%d virtual calls (interpreted), %.1f%% inline cache hits.%n", hits + misses,
+                    100.0 * hits / (hits + misses));
+        if (calls) {
+            for (CallSite site : sites)
+                System.err.printf("  call site %d (line %d): %d calls, %.1f%% hits%n", site.address(),
+                        program.sourceMap[site.address()] + 1, site.hits() + site.misses(), 100 * site.hitRate());
+        }
+    }
+
+    // runs the program interpreted and compiled (functions compiled on their first entry, on the VM thread)
+    private static boolean checkJit(ProgramImage program, int memSize) {
+        ByteArrayOutputStream interpretedOut = new ByteArrayOutputStream(), compiledOut = new ByteArrayOutputStream();
+        ExecuteVM interpreted = new ExecuteVM(program.code, program.data, new PrintStream(interpretedOut, true), memSize, false);
+        ExecuteVM compiled = new ExecuteVM(program.code, program.data, new PrintStream(compiledOut, true), memSize, false);
+        compiled.jit = new Jit(program.code, program.labels, 1, true);
+        interpreted.cpu();
+        compiled.cpu();
+        System.out.print(interpretedOut);
+        boolean same = Arrays.equals(interpretedOut.toByteArray(), compiledOut.toByteArray())
+                && interpreted.getInstructionCount() == compiled.getInstructionCount()
+                && interpreted.getRegisters().equals(compiled.getRegisters());
+        System.err.printf("Interpreted: %d instructions in %.3f ms; compiled (%d functions): %d instructions in %.3f ms.%n",
+                interpreted.getInstructionCount(), interpreted.getElapsedNanos() / 1e6,
+                compiled.jit.getCompiledFunctions(), compiled.getInstructionCount(), compiled.getElapsedNanos() / 1e6);
+        if (same) {
+            System.err.println("JIT check: same output, instruction count and registers.");
+        } else {
+            System.err.println("JIT check FAILED: interpreted " + interpreted.getRegisters() + ", compiled "
+                    + compiled.getRegisters() + "; compiled output:");
+            System.err.print(compiledOut);
+        }
+        return same;
+    }
+
+    public ExecuteVM(int[] code) {
+        this(code, System.out);
+    }
+
+    public ExecuteVM(int[] code, PrintStream out) {
+        this(code, out, MEMSIZE, false);
+    }
+
+    public ExecuteVM(int[] code, PrintStream out, int memSize, boolean growable) {
+        this(code, new int[0], out, memSize, growable);
+    }
+
+    /**
+     * data: data segment of the program (see ProgramImage); memSize: number of memory words (0 for the default
+     * of the mode, more than the data segment); growable: memory allocated as it is used, up to memSize words.
+     */
+    public ExecuteVM(int[] code, int[] data, PrintStream out, int memSize, boolean growable) {
+        this.code = code;
+        this.data = data;
+        this.out = out;
+        this.memSize = memSize > 0 ? memSize : growable ? GROWABLE_MEMSIZE : MEMSIZE;
+        this.growable = growable;
+        if (data.length >= this.memSize)
+            throw new IllegalArgumentException("The data segment (" + data.length + " words) does not fit in a memory of "
+                    + this.memSize + " words");
+        reset();
+    }
+
+    public void setObserver(VMObserver observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * Compiles hot functions (found through the functionN labels of the program image) to JVM code, in the
+     * background; used by cpu() only on the pre-decoded code, i.e. with fixed memory and no observer.
+     */
+    public void enableJit(Map<String, Integer> labels) {
+        jit = new Jit(code, labels, Jit.HOT_THRESHOLD, false);
+    }
+
+    public final void reset() {
+        memory = new int[growable ? Math.min(Math.max(SEGMENT_SIZE, data.length), memSize) : memSize];
+        // the stack segment starts above the data segment, which memory holds: read() has to find it there
+        stack = growable ? new int[Math.min(SEGMENT_SIZE, memSize - data.length)] : null;
+        System.arraycopy(data, 0, memory, 0, data.length);
+        ip = 0;
+        sp = memSize;
+        tm = 0;
+        hp = data.length;
+        ra = 0;
+        fp = memSize;
+        instructionCount = 0;
+        elapsedNanos = 0;
+        heapBase = -1;
+        freeBlocksValid = false;
+        collections = 0;
+        reclaimedWords = 0;
+        if (cacheKey != null) {
+            Arrays.fill(cacheKey, -1);
+            Arrays.fill(cacheHits, 0);
+            Arrays.fill(cacheMisses, 0);
+        }
+    }
+
+    /**
+     * Runs the program until halt (or segmentation fault) at full speed: on the pre-decoded code, unless
+     * an observer has to see every write or memory is growable, in which case one step() at a time.
+     */
+    public void cpu() {
+        long start = System.nanoTime();
+        if (observer == null && !growable) run();
+        else while (step()) ;
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    // superinstructions of the pre-decoded code (beyond the SVMParser opcodes), for idioms of the compiler
+    static final int LOADLOCAL = 101;  // lfp; push k; add; lw    (IdNode, local variable or parameter)
+    static final int LOADOFFSET = 102; // push k; add; lw         (load at an offset from the address on top)
+    static final int HPINC = 103;      // push n; lhp; add; shp   (heap allocation)
+    static final int BRTRUE = 104;     // push 1; beq L           (IfNode)
+    // stm; ltm; ltm; lw; push k; add; lw; js   (ClassCallNode, and CallNode of a method: call through the
+    // dispatch table of the object on top); with an inline cache per call site, keyed on the dispatch pointer,
+    // which skips the load from the table while the site keeps seeing objects of the same class. Only tables
+    // in the data segment are cached, since the compiler never writes there. Stops at the js, run on its own
+    static final int CALLVIRT = 105;
+
+    /**
+     * Pre-decoded code: for each code word a, decoded[2a] is the instruction starting there and decoded[2a+1]
+     * its operand (already fetched, branch targets included), so that an instruction is a single pair of
+     * adjacent words. Sequences of instructions emitted for common idioms become a single superinstruction.
+     * Every word is decoded as if an instruction started there: a jump into the middle of a fused sequence
+     * just runs the rest of it one instruction at a time, so labels inside sequences need no care.
+     */
+    static int[] decode(int[] code) {
+        int[] decoded = new int[2 * code.length];
+        for (int a = 0; a < code.length; a++) {
+            decoded[2 * a] = code[a];
+            if (a + 1 < code.length) decoded[2 * a + 1] = code[a + 1];
+            if (matches(code, a, SVMParser.LOADFP, SVMParser.PUSH, -1, SVMParser.ADD, SVMParser.LOADW)) {
+                decoded[2 * a] = LOADLOCAL;
+                decoded[2 * a + 1] = code[a + 2];
+            } else if (matches(code, a, SVMParser.PUSH, -1, SVMParser.ADD, SVMParser.LOADW)) {
+                decoded[2 * a] = LOADOFFSET;
+            } else if (matches(code, a, SVMParser.PUSH, -1, SVMParser.LOADHP, SVMParser.ADD, SVMParser.STOREHP)) {
+                decoded[2 * a] = HPINC;
+            } else if (matches(code, a, SVMParser.PUSH, 1, SVMParser.BRANCHEQ, -1)) {
+                decoded[2 * a] = BRTRUE;
+                decoded[2 * a + 1] = code[a + 3];
+            } else if (matches(code, a, SVMParser.STORETM, SVMParser.LOADTM, SVMParser.LOADTM, SVMParser.LOADW,
+                    SVMParser.PUSH, -1, SVMParser.ADD, SVMParser.LOADW, SVMParser.JS)) {
+                decoded[2 * a] = CALLVIRT;
+                decoded[2 * a + 1] = code[a + 5];
+            }
+        }
+        return decoded;
+    }
+
+    // whether the code at the given address is the given sequence of words (-1: any operand)
+    private static boolean matches(int[] code, int address, int... words) {
+        if (address + words.length > code.length) return false;
+        for (int i = 0; i < words.length; i++)
+            if (words[i] != -1 && code[address + i] != words[i]) return false;
+        return true;
+    }
+
+    // same semantics as step(), with the registers in local variables (written back when the loop exits)
+    // and the stack/heap collision checked only by the instructions making the stack grow (or moving $hp);
+    // superinstructions do not write the words that their plain instructions leave dead below $sp
+    private void run() {
+        if (decoded == null) {
+            decoded = decode(code);
+            cacheKey = new int[code.length];
+            cacheTarget = new int[code.length];
+            cacheHits = new long[code.length];
+            cacheMisses = new long[code.length];
+            Arrays.fill(cacheKey, -1);
+        }
+        final int[] d = decoded;
+        final int[] mem = memory;
+        int ip = this.ip, sp = this.sp, fp = this.fp, hp = this.hp, ra = this.ra, tm = this.tm;
+        long count = 0;
+        boolean fault = false;
+        int v1, v2;
+        try {
+            loop:
+            while (true) {
+                int op = d[2 * ip];
+                count++;
+                plain:
+                {
+                    switch (op) {
+                        case SVMParser.PUSH:
+                            v1 = d[2 * ip + 1];
+                            ip += 2;
+                            if (sp - 1 <= hp && sp - 1 <= (hp = collectBeforePush(sp, hp, tm, v1))) {
+                                mem[--sp] = v1;
+                                fault = true;
+                                break loop;
+                            }
+                            mem[--sp] = v1;
+                            break;
+                        case SVMParser.POP:
+                            ip++;
+                            sp++;
+                            break;
+                        case SVMParser.ADD:
+                            ip++;
+                            v1 = mem[sp++];
+                            mem[sp] = mem[sp] + v1;
+                            break;
+                        case SVMParser.SUB:
+                            ip++;
+                            v1 = mem[sp++];
+                            mem[sp] = mem[sp] - v1;
+                            break;
+                        case SVMParser.MULT:
+                            ip++;
+                            v1 = mem[sp++];
+                            mem[sp] = mem[sp] * v1;
+                            break;
+                        case SVMParser.DIV:
+                            ip++;
+                            v1 = mem[sp++];
+                            mem[sp] = mem[sp] / v1;
+                            break;
+                        case SVMParser.STOREW:
+                            ip++;
+                            v1 = mem[sp++];
+                            mem[v1] = mem[sp++];
+                            break;
+                        case SVMParser.LOADW:
+                            ip++;
+                            mem[sp] = mem[mem[sp]];
+                            break;
+                        case SVMParser.BRANCH:
+                            ip = d[2 * ip + 1];
+                            break;
+                        case SVMParser.BRANCHEQ:
+                            v1 = mem[sp++];
+                            v2 = mem[sp++];
+                            ip = v2 == v1 ? d[2 * ip + 1] : ip + 2;
+                            break;
+                        case SVMParser.BRANCHLESSEQ:
+                            v1 = mem[sp++];
+                            v2 = mem[sp++];
+                            ip = v2 <= v1 ? d[2 * ip + 1] : ip + 2;
+                            break;
+                        case CALLVIRT: // the object pointer stays on the stack as Access Link
+                            if (sp - 2 <= hp) break plain;
+                            tm = mem[sp];
+                            v1 = mem[tm]; // dispatch pointer
+                            if (v1 == cacheKey[ip] && v1 >= 0) {
+                                cacheHits[ip]++;
+                                v2 = cacheTarget[ip];
+                            } else {
+                                cacheMisses[ip]++;
+                                v2 = mem[v1 + d[2 * ip + 1]];
+                                if (v1 < data.length) {
+                                    cacheKey[ip] = v1;
+                                    cacheTarget[ip] = v2;
+                                }
+                            }
+                            mem[--sp] = v2;
+                            ip += 8; // the js of the sequence, run as a plain instruction
+                            count += 6;
+                            break;
+                        case SVMParser.JS:
+                            ra = ip + 1;
+                            ip = mem[sp++];
+                            if (jit != null) {
+                                int[] r = jitRegisters;
+                                r[0] = ip;
+                                r[1] = sp;
+                                r[2] = fp;
+                                r[3] = hp;
+                                r[4] = ra;
+                                r[5] = tm;
+                                count += runCompiled(r);
+                                ip = r[0];
+                                sp = r[1];
+                                fp = r[2];
+                                hp = r[3];
+                                ra = r[4];
+                                tm = r[5];
+                            }
+                            break;
+                        case SVMParser.LOADRA:
+                            v1 = ra;
+                            ip++;
+                            if (sp - 1 <= hp && sp - 1 <= (hp = collectBeforePush(sp, hp, tm, v1))) {
+                                mem[--sp] = v1;
+                                fault = true;
+                                break loop;
+                            }
+                            mem[--sp] = v1;
+                            break;
+                        case SVMParser.LOADTM:
+                            v1 = tm;
+                            ip++;
+                            if (sp - 1 <= hp && sp - 1 <= (hp = collectBeforePush(sp, hp, tm, v1))) {
+                                mem[--sp] = v1;
+                                fault = true;
+                                break loop;
+                            }
+                            mem[--sp] = v1;
+                            break;
+                        case SVMParser.LOADFP:
+                            v1 = fp;
+                            ip++;
+                            if (sp - 1 <= hp && sp - 1 <= (hp = collectBeforePush(sp, hp, tm, v1))) {
+                                mem[--sp] = v1;
+                                fault = true;
+                                break loop;
+                            }
+                            mem[--sp] = v1;
+                            break;
+                        case SVMParser.LOADHP:
+                            v1 = hp;
+                            ip++;
+                            if (sp - 1 <= hp && sp - 1 <= (hp = collectBeforePush(sp, hp, tm, v1))) {
+                                mem[--sp] = v1;
+                                fault = true;
+                                break loop;
+                            }
+                            mem[--sp] = v1;
+                            break;
+                        case SVMParser.STORERA:
+                            ip++;
+                            ra = mem[sp++];
+                            break;
+                        case SVMParser.STORETM:
+                            ip++;
+                            tm = mem[sp++];
+                            break;
+                        case SVMParser.STOREFP:
+                            ip++;
+                            fp = mem[sp++];
+                            break;
+                        case SVMParser.COPYFP:
+                            ip++;
+                            fp = sp;
+                            break;
+                        case SVMParser.STOREHP:
+                            ip++;
+                            hp = mem[sp++];
+                            if (sp <= hp) {
+                                fault = true;
+                                break loop;
+                            }
+                            break;
+                        case SVMParser.PRINT:
+                            ip++;
+                            print(sp == memSize ? "EMPTY STACK" : Integer.toString(mem[sp]));
+                            break;
+                        case SVMParser.HALT:
+                            ip++;
+                            break loop;
+                        case SVMParser.NEW: // rare enough to go through the fields
+                            this.sp = sp;
+                            this.hp = hp;
+                            this.tm = tm;
+                            v1 = d[2 * ip + 1];
+                            ip += 2;
+                            boolean allocated = newObject(v1);
+                            sp = this.sp;
+                            hp = this.hp;
+                            if (!allocated) break loop;
+                            break;
+                        case LOADLOCAL: // superinstructions: not run when plain instructions would reach the heap
+                            if (sp - 2 <= hp) break plain;
+                            mem[--sp] = mem[fp + d[2 * ip + 1]];
+                            ip += 5;
+                            count += 3;
+                            break;
+                        case LOADOFFSET:
+                            if (sp - 1 <= hp) break plain;
+                            mem[sp] = mem[mem[sp] + d[2 * ip + 1]];
+                            ip += 4;
+                            count += 2;
+                            break;
+                        case HPINC:
+                            if (sp - 2 <= hp) break plain;
+                            hp += d[2 * ip + 1];
+                            ip += 5;
+                            count += 3;
+                            if (sp <= hp) {
+                                fault = true;
+                                break loop;
+                            }
+                            break;
+                        case BRTRUE:
+                            if (sp - 1 <= hp) break plain;
+                            ip = mem[sp++] == 1 ? d[2 * ip + 1] : ip + 4;
+                            count += 1;
+                            break;
+                        default:
+                            ip++;
+                    }
+                    continue;
+                }
+                // near the heap, a superinstruction runs as its first plain instruction, through step(),
+                // so that collisions and collections happen exactly as in step()
+                this.ip = ip;
+                this.sp = sp;
+                this.fp = fp;
+                this.hp = hp;
+                this.ra = ra;
+                this.tm = tm;
+                count--;
+                boolean running = step();
+                ip = this.ip;
+                sp = this.sp;
+                fp = this.fp;
+                hp = this.hp;
+                ra = this.ra;
+                tm = this.tm;
+                if (!running) break;
+            }
+        } finally {
+            this.ip = ip;
+            this.sp = sp;
+            this.fp = fp;
+            this.hp = hp;
+            this.ra = ra;
+            this.tm = tm;
+            instructionCount += count;
+        }
+        if (fault) print("Segmentation fault");
+    }
+
+    // after a jump: runs compiled code as long as there is some at $ip (registers in r); returns the instructions run
+    private long runCompiled(int[] r) {
+        long count = 0;
+        while (true) {
+            jit.entered(r[0]);
+            Jit.CompiledCode compiled = jit.compiledAt(r[0]);
+            if (compiled == null) return count;
+            long n = compiled.run(this, memory, r);
+            if (n == 0) return count; // it left the first instruction to the interpreter
+            count += n;
+        }
+    }
+
+    // the stack is about to overwrite the heap: as push() does, tries to shrink the heap; returns the new $hp
+    private int collectBeforePush(int sp, int hp, int tm, int v) {
+        this.sp = sp;
+        this.hp = hp;
+        this.tm = tm;
+        if (heapBase >= 0) collect(v);
+        return this.hp;
+    }
+
+    /**
+     * Executes a single instruction; returns false when the execution is over.
+     */
+    public boolean step() {
+        instructionCount++;
+        int bytecode = fetch();
+        int v1, v2;
+        int address;
+        switch (bytecode) {
+            case SVMParser.PUSH:
+                v1 = fetch();
+                push(v1);
+                break;
+            case SVMParser.POP:
+                pop();
+                break;
+            case SVMParser.ADD:
+                v1 = pop();
+                v2 = pop();
+                push(v2 + v1);
+                break;
+            case SVMParser.SUB:
+                v1 = pop();
+                v2 = pop();
+                push(v2 - v1);
+                break;
+            case SVMParser.MULT:
+                v1 = pop();
+                v2 = pop();
+                push(v2 * v1);
+                break;
+            case SVMParser.DIV:
+                v1 = pop();
+                v2 = pop();
+                push(v2 / v1);
+                break;
+            case SVMParser.STOREW:
+                address = pop();
+                store(address, pop());
+                break;
+            case SVMParser.LOADW:
+                push(read(pop()));
+                break;
+            case SVMParser.BRANCH:
+                ip = fetch();
+                break;
+            case SVMParser.BRANCHEQ:
+                address = fetch();
+                v1 = pop();
+                v2 = pop();
+                ip = v2 == v1 ? address : ip;
+                break;
+            case SVMParser.BRANCHLESSEQ:
+                address = fetch();
+                v1 = pop();
+                v2 = pop();
+                ip = v2 <= v1 ? address : ip;
+                break;
+            case SVMParser.JS:
+                address = pop();
+                ra = ip;
+                ip = address;
+                break;
+            case SVMParser.LOADRA:
+                push(ra);
+                break;
+            case SVMParser.STORERA:
+                ra = pop();
+                break;
+            case SVMParser.LOADTM:
+                push(tm);
+                break;
+            case SVMParser.STORETM:
+                tm = pop();
+                break;
+            case SVMParser.LOADFP:
+                push(fp);
+                break;
+            case SVMParser.STOREFP:
+                fp = pop();
+                break;
+            case SVMParser.COPYFP:
+                fp = sp;
+                break;
+            case SVMParser.LOADHP:
+                push(hp);
+                break;
+            case SVMParser.STOREHP:
+                hp = pop();
+                break;
+            case SVMParser.PRINT:
+                print(sp == memSize ? "EMPTY STACK" : Integer.toString(read(sp)));
+                break;
+            case SVMParser.HALT:
+                return false;
+            case SVMParser.NEW:
+                if (!newObject(fetch())) return false;
+                break;
+        }
+        if (sp <= hp) {
+            print("Segmentation fault");
+            return false;
+        }
+        return true;
+    }
+
+    // pops the dispatch pointer and the fields (first field on top), pushes the object pointer;
+    // returns false if memory is full
+    private boolean newObject(int fields) {
+        int block = allocate(fields + 2); // header, fields from the last to the first, dispatch pointer
+        if (block < 0) {
+            print("Out of memory");
+            return false;
+        }
+        int object = block + fields + 1;
+        store(object, read(sp));
+        for (int f = 0; f < fields; f++) store(object - 1 - f, read(sp + 1 + f));
+        sp += fields + 1;
+        push(object);
+        return true;
+    }
+
+    // returns the address of a block of the given size, with its header written, or -1 if memory is full;
+    // the operands of the allocating instruction are still on the stack, so they are roots for the collector
+    private int allocate(int size) {
+        if (heapBase < 0) {
+            heapBase = hp;
+            heapLimit = hp + HEAP_GROWTH;
+        }
+        int block = takeFreeBlock(size);
+        if (block < 0 && (hp + size > heapLimit || hp + size >= sp)) {
+            collect(tm);
+            block = takeFreeBlock(size);
+        }
+        if (block < 0) {
+            if (hp + size >= sp) return -1;
+            block = hp;
+            hp += size;
+        }
+        store(block, size);
+        return block;
+    }
+
+    private int takeFreeBlock(int size) {
+        if (!freeBlocksValid) {
+            freeCount = 0;
+            for (int a = heapBase; a < hp; a += Math.abs(read(a)))
+                if (read(a) < 0) addFreeBlock(a);
+            freeBlocksValid = true;
+        }
+        for (int i = 0; i < freeCount; i++) {
+            int free = freeBlocks[i];
+            int freeSize = -read(free);
+            if (freeSize < size) continue;
+            // the block is taken from the end of the free one, which keeps its address (and the order of the list)
+            if (freeSize == size) System.arraycopy(freeBlocks, i + 1, freeBlocks, i, --freeCount - i);
+            else store(free, size - freeSize);
+            return free + freeSize - size;
+        }
+        return -1;
+    }
+
+    private void addFreeBlock(int block) {
+        if (freeCount == freeBlocks.length) freeBlocks = Arrays.copyOf(freeBlocks, freeCount * 2);
+        freeBlocks[freeCount++] = block;
+    }
+
+    // extraRoot: a value being pushed, not yet on the stack ($tm when there is none)
+    private void collect(int extraRoot) {
+        collections++;
+        int heapSize = hp - heapBase;
+        int[] blockOf = new int[heapSize]; // blockOf[p - heapBase] = 1 + block of the allocated object with pointer p
+        for (int a = heapBase, header; a < hp; a += Math.abs(header))
+            if ((header = read(a)) > 0) blockOf[a + header - 1 - heapBase] = a + 1;
+
+        // mark: from the roots (stack words, $tm and extraRoot), then from the fields of marked objects
+        BitSet marked = new BitSet(heapSize);
+        int[] pending = new int[heapSize];
+        int pendingCount = mark(tm, blockOf, marked, pending, 0);
+        pendingCount = mark(extraRoot, blockOf, marked, pending, pendingCount);
+        for (int a = sp; a < memSize; a++) pendingCount = mark(read(a), blockOf, marked, pending, pendingCount);
+        while (pendingCount > 0) {
+            int object = pending[--pendingCount];
+            for (int a = blockOf[object - heapBase]; a < object; a++) // fields (the header is skipped)
+                pendingCount = mark(read(a), blockOf, marked, pending, pendingCount);
+        }
+
+        // sweep: adjacent free blocks are merged, the trailing one is given back to the stack
+        freeCount = 0;
+        int freeStart = -1, liveWords = 0;
+        for (int a = heapBase, header, size; a < hp; a += size) {
+            header = read(a);
+            size = Math.abs(header);
+            if (header > 0 && marked.get(a + size - 1 - heapBase)) {
+                liveWords += size;
+                if (freeStart >= 0) {
+                    if (read(freeStart) != freeStart - a) store(freeStart, freeStart - a);
+                    addFreeBlock(freeStart);
+                    freeStart = -1;
+                }
+            } else {
+                if (header > 0) reclaimedWords += size;
+                if (freeStart < 0) freeStart = a;
+            }
+        }
+        if (freeStart >= 0) hp = freeStart;
+        // from the heap base, not from $hp: a live object near $hp would otherwise make the heap grow at every
+        // collection, while the free blocks below it are enough for the new objects
+        heapLimit = heapBase + liveWords + Math.max(liveWords, HEAP_GROWTH);
+        freeBlocksValid = true;
+    }
+
+    private int mark(int word, int[] blockOf, BitSet marked, int[] pending, int pendingCount) {
+        if (word >= heapBase && word < hp && blockOf[word - heapBase] != 0 && !marked.get(word - heapBase)) {
+            marked.set(word - heapBase);
+            pending[pendingCount++] = word;
+        }
+        return pendingCount;
+    }
+
+    // print instruction of compiled code
+    void printTop(int sp) {
+        print(sp == memSize ? "EMPTY STACK" : Integer.toString(memory[sp]));
+    }
+
+    private void print(String line) {
+        out.println(line);
+        if (observer != null) observer.output(line);
+    }
+
+    private void store(int address, int v) {
+        if (observer != null) observer.memoryWrite(address, read(address));
+        write(address, v);
+    }
+
+    /**
+     * Word at the given address (0 if never written, when growable).
+     */
+    public int read(int address) {
+        if (!growable) return memory[address];
+        int stackBase = memSize - stack.length;
+        if (address >= stackBase) return stack[address - stackBase];
+        return address < memory.length ? memory[address] : 0;
+    }
+
+    /**
+     * Writes a word without notifying the observer (the debugger undoing a write).
+     */
+    void restore(int address, int v) {
+        write(address, v);
+    }
+
+    private void write(int address, int v) {
+        if (!growable) {
+            memory[address] = v;
+            return;
+        }
+        int stackBase = memSize - stack.length;
+        if (address < stackBase && address >= sp) stackBase = growStack(address);
+        if (address >= stackBase) {
+            stack[address - stackBase] = v;
+        } else {
+            if (address >= memory.length)
+                memory = Arrays.copyOf(memory, Math.min(Math.max(2 * memory.length, address + 1), memSize));
+            memory[address] = v;
+        }
+    }
+
+    // enlarges the stack segment down to (at least) the given address and returns its new base;
+    // addresses it now covers keep the value they had in the heap segment
+    private int growStack(int address) {
+        int oldBase = memSize - stack.length;
+        int[] grown = new int[Math.min(Math.max(2 * stack.length, memSize - address), memSize)];
+        int newBase = memSize - grown.length;
+        System.arraycopy(stack, 0, grown, oldBase - newBase, stack.length);
+        int covered = Math.min(oldBase, memory.length) - newBase;
+        if (covered > 0) System.arraycopy(memory, newBase, grown, 0, covered);
+        stack = grown;
+        return newBase;
+    }
+
+    private int pop() {
+        return read(sp++);
+    }
+
+    private void push(int v) {
+        if (sp - 1 <= hp && heapBase >= 0) collect(v); // the stack is about to overwrite the heap: try to shrink it
+        store(--sp, v);
+    }
+
+    private int fetch() {
+        return code[ip++];
+    }
+
+    public Registers getRegisters() {
+        return new Registers(ip, sp, fp, hp, ra, tm, heapBase, heapLimit);
+    }
+
+    public void setRegisters(Registers r) {
+        ip = r.ip();
+        sp = r.sp();
+        fp = r.fp();
+        hp = r.hp();
+        ra = r.ra();
+        tm = r.tm();
+        heapBase = r.heapBase();
+        heapLimit = r.heapLimit();
+        freeBlocksValid = false; // memory may have been restored as well
+    }
+
+    public int getIp() {
+        return ip;
+    }
+
+    public int getSp() {
+        return sp;
+    }
+
+    public int getTm() {
+        return tm;
+    }
+
+    public int getHp() {
+        return hp;
+    }
+
+    public int getRa() {
+        return ra;
+    }
+
+    public int getFp() {
+        return fp;
+    }
+
+    public int getMemorySize() {
+        return memSize;
+    }
+
+    public boolean isGrowable() {
+        return growable;
+    }
+
+    /**
+     * Words of memory actually allocated (all of them, unless growable).
+     */
+    public int getAllocatedWords() {
+        return memory.length + (growable ? stack.length : 0);
+    }
+
+    public int getCollections() {
+        return collections;
+    }
+
+    public long getReclaimedWords() {
+        return reclaimedWords;
+    }
+
+    /**
+     * Virtual call sites run by the interpreter so far, in address order, with their inline cache statistics.
+     */
+    public List<CallSite> getCallSites() {
+        List<CallSite> sites = new ArrayList<>();
+        if (cacheKey == null) return sites;
+        for (int a = 0; a < cacheKey.length; a++)
+            if (cacheHits[a] + cacheMisses[a] > 0) sites.add(new CallSite(a, cacheHits[a], cacheMisses[a]));
+        return sites;
+    }
+
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double instructionsPerSecond() {
+        return elapsedNanos == 0 ? 0 : instructionCount * 1e9 / elapsedNanos;
+    }
+}
@@ -1,36 +1,25 @@
 package visualsvm;
 
-import visualsvm.SVMParser;
-
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import java.util.*;
 import java.util.List;
-import java.util.stream.*;
 
 public class ExecuteVVM {
 
     private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
 
-    public static final int MEMSIZE = 10000;
-    public static final int CODESIZE = 10000;
-    private int[] code;
-    private int[] memory;
-
-    private int ip = 0;
-    private int sp = MEMSIZE; // punta al top dello stack
-
-    private int tm;
-    private int hp = 0;
-    private int ra;
-    private int fp = MEMSIZE;
+    private final ExecuteVM vm;
+    private final ExecutionHistory history;
+    private boolean halted = false; // execution is over: ip is one past the last executed instruction
     private final List<CodeLine> codeLines = new ArrayList<>();
     private final JFrame frame;
     private final JPanel mainPanel;
     private final JPanel buttonPanel;
     private final JList<CodeLine> asmList;
     private final JList<String> stackList, heapList;
+    private final MemoryListModel memoryModel;
     private final JButton backStep;
     private final JButton backToBreakPoint;
     private final JButton reset;
@@ -47,14 +36,29 @@ public class ExecuteVVM {
 
     private int[] sourceMap;
     private List<String> source;
-    private int debugLineCode = 0;
+
+    public ExecuteVVM(ProgramImage image) {
+        this(image, ExecuteVM.MEMSIZE);
+    }
+
+    public ExecuteVVM(ProgramImage image, int memSize) {
+        this(image.code, image.data, image.sourceMap, image.source, memSize);
+    }
 
     public ExecuteVVM(int[] code, int[] sourceMap, List<String> source) {
+        this(code, sourceMap, source, ExecuteVM.MEMSIZE);
+    }
+
+    public ExecuteVVM(int[] code, int[] sourceMap, List<String> source, int memSize) {
+        this(code, new int[0], sourceMap, source, memSize);
+    }
+
+    // the debugger shows every memory word, so memory is never growable here
+    public ExecuteVVM(int[] code, int[] data, int[] sourceMap, List<String> source, int memSize) {
         boolean printArgumentLineNumber = false;
-        this.code = code;
+        this.vm = new ExecuteVM(code, data, System.out, memSize, false);
         this.sourceMap = sourceMap;
         this.source = source;
-        this.memory = new int[MEMSIZE];
 
         this.frame = new JFrame("FOOL Virtual Machine");
         this.mainPanel = new JPanel();
@@ -112,7 +116,8 @@ public class ExecuteVVM {
 
             // label for function definition is not ad instruction in code[]
             // => setting same address of first function instruction
-            if (line.contains(":")) {
+            // directives (data segment) are not in code[] either
+            if (line.contains(":") || line.trim().startsWith(".")) {
                 //    commandLines.add(String.format("%5d: %s", realIp, line));
                 codeLines.add(CodeLine.simpleLine("       " + line));
                 continue;
@@ -167,13 +172,18 @@ public class ExecuteVVM {
         this.asmScroll.setBorder(BorderFactory.createTitledBorder("CODE"));
         this.mainPanel.add(this.asmScroll, BorderLayout.EAST);
 
-        this.stackList = new JList<>();
+        // stack and heap views share one lazy model over the live memory of the VM
+        this.memoryModel = new MemoryListModel(this.vm);
+        this.stackList = new JList<>(this.memoryModel);
         removeListenersFrom(this.stackList);
-        this.heapList = new JList<>();
+        this.heapList = new JList<>(this.memoryModel);
         removeListenersFrom(this.heapList);
 
         this.stackList.setFont(new Font(Font.MONOSPACED, Font.BOLD, 16));
         this.heapList.setFont(new Font(Font.MONOSPACED, Font.BOLD, 16));
+        // fixed cell size: the lists never measure (and so never format) cells that are not visible
+        this.stackList.setPrototypeCellValue(this.memoryModel.prototype());
+        this.heapList.setPrototypeCellValue(this.memoryModel.prototype());
         this.stackScroll = new JScrollPane(this.stackList, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
                 JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
         this.stackScroll.setBorder(BorderFactory.createTitledBorder("STACK"));
@@ -187,6 +197,22 @@ public class ExecuteVVM {
         this.outputText = new JTextArea();
         this.outputText.setRows(7);
         this.outputText.setEditable(false);
+        this.history = new ExecutionHistory(this.vm, new VMObserver() {
+            @Override
+            public void output(String line) {
+                ExecuteVVM.this.outputText.append(line + "\n");
+            }
+
+            @Override
+            public void memoryWrite(int address, int oldValue) {
+                ExecuteVVM.this.memoryModel.written(address);
+            }
+
+            @Override
+            public void outputRewound(int length) {
+                ExecuteVVM.this.outputText.replaceRange("", length, ExecuteVVM.this.outputText.getDocument().getLength());
+            }
+        });
         this.outputScroll = new JScrollPane(this.outputText, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
                 JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
 
@@ -231,63 +257,40 @@ public class ExecuteVVM {
     }
 
     private void reset() {
-        this.memory = new int[MEMSIZE];
-        this.tm = 0;
-        this.ra = 0;
-        this.fp = MEMSIZE;
-        this.ip = 0;
-        this.sp = MEMSIZE;
-        this.hp = 0;
+        this.history.reset();
+        this.memoryModel.reset();
+        this.halted = false;
         this.nextStep.setEnabled(true);
         this.play.setEnabled(true);
         this.outputText.setText("");
     }
 
     private void resetButtonHandler() {
-        this.debugLineCode = 0;
         this.reset();
         this.update();
     }
 
     private void backToBreakPointButtonHandler() {
-        this.reset();
-        int nearlestBreakpoint = 0;
-        int tempBreakpoint = 0;
-        while (this.step()) {
-            tempBreakpoint++;
-            if (lineHasBreakpoint()) {
-                nearlestBreakpoint = tempBreakpoint;
-            }
-
-            if (tempBreakpoint + 1 == this.debugLineCode) {
+        int nearestBreakpoint = 0;
+        for (int step = this.history.getSteps() - 1; step > 0; step--) {
+            if (lineHasBreakpoint(this.history.ipAfter(step))) {
+                nearestBreakpoint = step;
                 break;
             }
         }
-        this.debugLineCode = nearlestBreakpoint + 1;
-        this.backStepButtonHandler();
-
+        this.rewindTo(nearestBreakpoint);
     }
 
     private void backStepButtonHandler() {
-        this.reset();
-        if (this.debugLineCode < 2) {
-            this.debugLineCode = 0;
-            this.update();
-        } else {
-            this.debugLineCode--;
-            int tempBreakpoint = 0;
-            while (this.step()) {
-                tempBreakpoint++;
-                if (tempBreakpoint == this.debugLineCode) {
-                    this.update();
-                    return;
-                }
-            }
-            this.nextStep.setEnabled(false);
-            this.play.setEnabled(false);
-            ip--;
-            this.update();
-        }
+        this.rewindTo(Math.max(this.history.getSteps() - 1, 0));
+    }
+
+    private void rewindTo(int step) {
+        boolean running = this.history.rewind(step);
+        this.halted = !running;
+        this.nextStep.setEnabled(running);
+        this.play.setEnabled(running);
+        this.update();
     }
 
     private <E> void removeListenersFrom(JList<E> list) {
@@ -315,54 +318,45 @@ public class ExecuteVVM {
     }
 
     private void setMem() {
-        // Codice per non visualizzare 0 in memoria
-//        this.stackList.setListData(new Vector<>(
-//                IntStream.range(0, MEMSIZE).mapToObj(x -> String.format("%5d: %s", x, x <= hp || x >= sp ? this.memory[x] : ""))
-//                        .collect(Collectors.toList())));
-//        this.heapList.setListData(new Vector<>(
-//                IntStream.range(0, MEMSIZE).mapToObj(x -> String.format("%5d: %s", x, x <= hp || x >= sp ? this.memory[x] : ""))
-//                        .collect(Collectors.toList())));
-        final var mem = IntStream.range(0, MEMSIZE)
-                .mapToObj(x -> String.format("%5d: %s", x, this.memory[x]))
-                .collect(Collectors.toCollection(ArrayList::new));
-        mem.add(String.valueOf(MEMSIZE));
-
-        var memory = new Vector<>(mem);
-
-        this.stackList.setListData(memory);
+        this.memoryModel.refresh();
+
         this.stackList.clearSelection();
-        this.stackList.setSelectedIndex(this.sp);
+        this.stackList.setSelectedIndex(this.vm.getSp());
         this.stackScroll.getVerticalScrollBar()
-                .setValue(computeScrollDestination(this.stackScroll.getVerticalScrollBar(), this.sp));
+                .setValue(computeScrollDestination(this.stackScroll.getVerticalScrollBar(), this.vm.getSp()));
 
-        this.heapList.setListData(memory);
         this.heapList.clearSelection();
-        this.heapList.setSelectedIndex(this.hp);
+        this.heapList.setSelectedIndex(this.vm.getHp());
         this.heapScroll.getVerticalScrollBar()
-                .setValue(computeScrollDestination(this.heapScroll.getVerticalScrollBar(), this.hp));
+                .setValue(computeScrollDestination(this.heapScroll.getVerticalScrollBar(), this.vm.getHp()));
     }
 
     private int computeScrollDestination(JScrollBar scroll, int pointer) {
         return Math.max(
-                pointer * (scroll.getMaximum() / MEMSIZE) - scroll.getHeight() / 2,
+                pointer * (scroll.getMaximum() / this.vm.getMemorySize()) - scroll.getHeight() / 2,
                 0
         );
     }
 
+    private int displayIp() {
+        return this.halted ? this.vm.getIp() - 1 : this.vm.getIp();
+    }
+
     private void update() {
-        this.raLabel.setText("RA: " + this.ra);
-        this.fpLabel.setText("FP: " + this.fp);
-        this.tmLabel.setText("TM: " + this.tm);
-        this.ipLabel.setText("IP: " + this.ip);
-        this.hpLabel.setText("HP: " + this.hp);
-        this.spLabel.setText("SP: " + this.sp);
+        final int ip = displayIp();
+        this.raLabel.setText("RA: " + this.vm.getRa());
+        this.fpLabel.setText("FP: " + this.vm.getFp());
+        this.tmLabel.setText("TM: " + this.vm.getTm());
+        this.ipLabel.setText("IP: " + ip);
+        this.hpLabel.setText("HP: " + this.vm.getHp());
+        this.spLabel.setText("SP: " + this.vm.getSp());
         this.asmList.clearSelection();
-        this.asmList.setSelectedIndex(this.sourceMap[this.ip]);
+        this.asmList.setSelectedIndex(this.sourceMap[ip]);
         final JScrollBar s = this.asmScroll.getVerticalScrollBar();
-        int dest = this.sourceMap[this.ip] * s.getMaximum() / this.codeLineCount - s.getHeight() / 2;
+        int dest = this.sourceMap[ip] * s.getMaximum() / this.codeLineCount - s.getHeight() / 2;
         s.setValue(Math.max(dest, 0));
         setMem();
-        var condToDisableButton = this.ip != 0;
+        var condToDisableButton = ip != 0;
         this.reset.setEnabled(condToDisableButton);
         this.backStep.setEnabled(condToDisableButton);
         this.backToBreakPoint.setEnabled(condToDisableButton);
@@ -373,21 +367,20 @@ public class ExecuteVVM {
     }
 
     private void playButtonHandler() {
-        while (this.step()) {
-            debugLineCode++;
-            if (lineHasBreakpoint()) {
+        while (this.history.step()) {
+            if (lineHasBreakpoint(this.vm.getIp())) {
                 this.update();
                 return;
             }
         }
         this.nextStep.setEnabled(false);
         this.play.setEnabled(false);
-        ip--;
+        this.halted = true;
         this.update();
     }
 
-    private boolean lineHasBreakpoint() {
-        return this.codeLines.get(this.sourceMap[this.ip])
+    private boolean lineHasBreakpoint(int ip) {
+        return this.codeLines.get(this.sourceMap[ip])
                 .hasBreakpoint()
                 .orElse(false);
     }
@@ -400,130 +393,15 @@ public class ExecuteVVM {
 //    }
 
     private void stepButtonHandler() {
-        boolean play = this.step();
+        boolean play = this.history.step();
         if (!play) {
             this.nextStep.setEnabled(false);
             this.play.setEnabled(false);
         } else {
-            this.debugLineCode++;
             this.update();
         }
     }
 
-    private boolean step() {
-        int bytecode = fetch();
-        int v1, v2;
-        int address;
-        switch (bytecode) {
-            case SVMParser.PUSH:
-                v1 = fetch();
-                push(v1);
-                break;
-            case SVMParser.POP:
-                pop();
-                break;
-            case SVMParser.ADD:
-                v1 = pop();
-                v2 = pop();
-                push(v2 + v1);
-                break;
-            case SVMParser.SUB:
-                v1 = pop();
-                v2 = pop();
-                push(v2 - v1);
-                break;
-            case SVMParser.MULT:
-                v1 = pop();
-                v2 = pop();
-                push(v2 * v1);
-                break;
-            case SVMParser.DIV:
-                v1 = pop();
-                v2 = pop();
-                push(v2 / v1);
-                break;
-            case SVMParser.STOREW:
-                address = pop();
-                memory[address] = pop();
-                break;
-            case SVMParser.LOADW:
-                push(memory[pop()]);
-                break;
-            case SVMParser.BRANCH:
-                ip = fetch();
-                break;
-            case SVMParser.BRANCHEQ:
-                address = fetch();
-                v1 = pop();
-                v2 = pop();
-                ip = v2 == v1 ? address : ip;
-                break;
-            case SVMParser.BRANCHLESSEQ:
-                address = fetch();
-                v1 = pop();
-                v2 = pop();
-                ip = v2 <= v1 ? address : ip;
-                break;
-            case SVMParser.JS:
-                address = pop();
-                ra = ip;
-                ip = address;
-                break;
-            case SVMParser.LOADRA:
-                push(ra);
-                break;
-            case SVMParser.STORERA:
-                ra = pop();
-                break;
-            case SVMParser.LOADTM:
-                push(tm);
-                break;
-            case SVMParser.STORETM:
-                tm = pop();
-                break;
-            case SVMParser.LOADFP:
-                push(fp);
-                break;
-            case SVMParser.STOREFP:
-                fp = pop();
-                break;
-            case SVMParser.COPYFP:
-                fp = sp;
-                break;
-            case SVMParser.LOADHP:
-                push(hp);
-                break;
-            case SVMParser.STOREHP:
-                hp = pop();
-                break;
-            case SVMParser.PRINT:
-                final String output = sp == MEMSIZE ? "EMPTY STACK" : Integer.toString(memory[sp]);
-                System.out.println(output);
-                this.outputText.append(output + "\n");
-                break;
-            case SVMParser.HALT:
-                return false;
-        }
-        if (this.sp <= this.hp) {
-            System.out.println("Segmentation fault");
-            this.outputText.append("Segmentation fault\n");
-            return false;
-        }
-        return true;
-    }
-
-    private int pop() {
-        return memory[sp++];
-    }
-
-    private void push(int v) {
-        memory[--sp] = v;
-    }
-
-    private int fetch() {
-        return code[ip++];
-    }
-
 }
 
 /**
@@ -621,4 +499,59 @@ class CodeLineCellRenderer extends JPanel implements ListCellRenderer<CodeLine>
         }
         return this;
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Lazy list model over the live memory of the VM: cells are formatted only when rendered,
+ * and refresh() notifies the lists only about the cells written since the previous refresh.
+ */
+@SuppressWarnings("serial") // never serialized: it lives as long as the debugger window
+class MemoryListModel extends AbstractListModel<String> {
+    private final ExecuteVM vm;
+    private final BitSet dirty = new BitSet();
+    private boolean allDirty = false;
+
+    MemoryListModel(ExecuteVM vm) {
+        this.vm = vm;
+    }
+
+    // widest cell, for a fixed cell size
+    String prototype() {
+        return String.format("%5d: %s", this.vm.getMemorySize(), Integer.MIN_VALUE);
+    }
+
+    void written(int address) {
+        this.dirty.set(address);
+    }
+
+    void reset() {
+        this.allDirty = true;
+    }
+
+    void refresh() {
+        if (this.allDirty) {
+            this.allDirty = false;
+            this.dirty.clear();
+            fireContentsChanged(this, 0, getSize() - 1);
+            return;
+        }
+        // one event per run of consecutive written cells (pushes write adjacent cells)
+        for (int from = this.dirty.nextSetBit(0); from >= 0; from = this.dirty.nextSetBit(from)) {
+            int to = this.dirty.nextClearBit(from);
+            fireContentsChanged(this, from, to - 1);
+            from = to;
+        }
+        this.dirty.clear();
+    }
+
+    @Override
+    public int getSize() {
+        return this.vm.getMemorySize() + 1;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        if (index == this.vm.getMemorySize()) return String.valueOf(index);
+        return String.format("%5d: %s", index, this.vm.read(index));
+    }
+}
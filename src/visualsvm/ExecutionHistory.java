@@ -0,0 +1,99 @@
+package visualsvm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Execution history of an ExecuteVM driven by the debugger, allowing to step backwards.
+ * Every CHECKPOINT_INTERVAL steps the registers are saved; every memory write is logged
+ * together with the value it overwrote. Going back to step k undoes the logged writes down
+ * to the nearest checkpoint before k, restores its registers and re-executes at most
+ * CHECKPOINT_INTERVAL instructions.
+ */
+class ExecutionHistory implements VMObserver {
+
+    static final int CHECKPOINT_INTERVAL = 1000;
+
+    private record Checkpoint(ExecuteVM.Registers registers, int writeLogSize, int outputLength) {
+    }
+
+    private final ExecuteVM vm;
+    private final VMObserver observer; // front-end observer, notified of output, writes and rewinds
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private int[] writeLog = new int[1024]; // pairs (address, overwritten value)
+    private int writeLogSize = 0;
+    private int[] ipTrace = new int[1024]; // ipTrace[s-1] = ip after the s-th step
+    private int steps = 0; // steps successfully executed since reset
+    private int outputLength = 0; // characters printed since reset
+
+    ExecutionHistory(ExecuteVM vm, VMObserver observer) {
+        this.vm = vm;
+        this.observer = observer;
+        vm.setObserver(this);
+        reset();
+    }
+
+    void reset() {
+        this.vm.reset();
+        this.checkpoints.clear();
+        this.checkpoints.add(new Checkpoint(this.vm.getRegisters(), 0, 0));
+        this.writeLogSize = 0;
+        this.steps = 0;
+        this.outputLength = 0;
+    }
+
+    int getSteps() {
+        return this.steps;
+    }
+
+    int ipAfter(int step) {
+        return this.ipTrace[step - 1];
+    }
+
+    boolean step() {
+        if (this.steps % CHECKPOINT_INTERVAL == 0 && this.checkpoints.size() == this.steps / CHECKPOINT_INTERVAL)
+            this.checkpoints.add(new Checkpoint(this.vm.getRegisters(), this.writeLogSize, this.outputLength));
+        if (!this.vm.step()) return false;
+        if (this.steps == this.ipTrace.length) this.ipTrace = Arrays.copyOf(this.ipTrace, this.steps * 2);
+        this.ipTrace[this.steps++] = this.vm.getIp();
+        return true;
+    }
+
+    /**
+     * Brings the VM back to the state after the given number of steps (not greater than the current one).
+     * Returns false if the program ended before reaching it.
+     */
+    boolean rewind(int target) {
+        int index = Math.min(target / CHECKPOINT_INTERVAL, this.checkpoints.size() - 1);
+        Checkpoint checkpoint = this.checkpoints.get(index);
+        while (this.writeLogSize > checkpoint.writeLogSize()) {
+            this.writeLogSize -= 2;
+            int address = this.writeLog[this.writeLogSize];
+            this.observer.memoryWrite(address, this.vm.read(address));
+            this.vm.restore(address, this.writeLog[this.writeLogSize + 1]);
+        }
+        this.checkpoints.subList(index + 1, this.checkpoints.size()).clear();
+        this.vm.setRegisters(checkpoint.registers());
+        this.steps = index * CHECKPOINT_INTERVAL;
+        this.outputLength = checkpoint.outputLength();
+        this.observer.outputRewound(this.outputLength);
+        while (this.steps < target)
+            if (!step()) return false;
+        return true;
+    }
+
+    @Override
+    public void output(String line) {
+        this.outputLength += line.length() + 1;
+        this.observer.output(line);
+    }
+
+    @Override
+    public void memoryWrite(int address, int oldValue) {
+        if (this.writeLogSize == this.writeLog.length) this.writeLog = Arrays.copyOf(this.writeLog, this.writeLogSize * 2);
+        this.writeLog[this.writeLogSize++] = address;
+        this.writeLog[this.writeLogSize++] = oldValue;
+        this.observer.memoryWrite(address, oldValue);
+    }
+}
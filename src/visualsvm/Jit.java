@@ -0,0 +1,252 @@
+package visualsvm;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+/**
+ * Second tier of ExecuteVM.run(): SVM functions (the code from a functionN label to the next one) entered
+ * HOT_THRESHOLD times are translated to a Java class and compiled in memory with javax.tools, so that HotSpot
+ * compiles them to machine code. In the generated code the registers are local variables and the memory is
+ * the int[] of the VM; a switch on $ip has a case for every instruction, falling through to the next one,
+ * and branches within the function jump back to the switch.
+ * <p>
+ * Compiled code runs from the entry of the function, or from a return address inside it, up to the next js
+ * (call or return), where the interpreter takes over and looks for compiled code at the jump target.
+ * It hands back to the interpreter also before new, shp and halt, and before a push that would reach the heap,
+ * so that allocation, collisions and collections stay in one place. Without a system Java compiler (a JRE)
+ * or if a function fails to compile, the interpreter just keeps running it.
+ */
+class Jit {
+
+    static final int HOT_THRESHOLD = 1000; // entries before a function is compiled
+    static final int MAX_FUNCTION_SIZE = 2000; // code words; larger methods would not be compiled by HotSpot
+
+    private static final Pattern FUNCTION_LABEL = Pattern.compile("function[0-9]+");
+    private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "SVM JIT");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Compiled SVM function.
+     */
+    interface CompiledCode {
+        /**
+         * Runs from registers[0] ($ip, an entry point) with the registers {ip, sp, fp, hp, ra, tm}, which are
+         * written back on exit; returns the number of SVM instructions executed.
+         */
+        long run(ExecuteVM vm, int[] memory, int[] registers);
+    }
+
+    private final int[] code;
+    private final int threshold;
+    private final boolean synchronous; // compile on the VM thread, as soon as a function becomes hot
+    private final int[] functionStart; // function containing each address, by start address: functionStart[a]
+    private final int[] functionEnd;   // and end (exclusive); -1 outside functions
+    private final int[] entries;       // entries into each function (by start address)
+    private final AtomicReferenceArray<CompiledCode> compiledAt; // compiled code runnable from each entry point
+    private volatile int compiledFunctions = 0; // written by the compiler thread
+
+    /**
+     * labels: those of the program image, where functions are found; threshold: entries before compilation.
+     */
+    Jit(int[] code, Map<String, Integer> labels, int threshold, boolean synchronous) {
+        this.code = code;
+        this.threshold = threshold;
+        this.synchronous = synchronous;
+        this.functionStart = new int[code.length];
+        this.functionEnd = new int[code.length];
+        this.entries = new int[code.length];
+        this.compiledAt = new AtomicReferenceArray<>(code.length);
+        Arrays.fill(this.functionStart, -1);
+        List<Integer> starts = new ArrayList<>();
+        for (Map.Entry<String, Integer> label : labels.entrySet())
+            if (FUNCTION_LABEL.matcher(label.getKey()).matches() && label.getValue() < code.length)
+                starts.add(label.getValue());
+        starts.sort(null);
+        for (int i = 0; i < starts.size(); i++) {
+            int start = starts.get(i), end = i + 1 < starts.size() ? starts.get(i + 1) : code.length;
+            for (int a = start; a < end; a++) {
+                this.functionStart[a] = start;
+                this.functionEnd[a] = end;
+            }
+        }
+    }
+
+    CompiledCode compiledAt(int address) {
+        return address >= 0 && address < this.code.length ? this.compiledAt.get(address) : null;
+    }
+
+    int getCompiledFunctions() {
+        return this.compiledFunctions;
+    }
+
+    /**
+     * Notes a jump to the given address, compiling the function it enters when it becomes hot.
+     */
+    void entered(int address) {
+        if (address < 0 || address >= this.code.length || this.functionStart[address] != address) return;
+        if (++this.entries[address] != this.threshold) return;
+        int end = this.functionEnd[address];
+        if (end - address > MAX_FUNCTION_SIZE || ToolProvider.getSystemJavaCompiler() == null) return;
+        if (this.synchronous) compile(address, end);
+        else COMPILER.execute(() -> compile(address, end));
+    }
+
+    private void compile(int start, int end) {
+        String className = "JitFunction" + start;
+        Class<?> compiledClass;
+        try {
+            byte[] bytes = javac("visualsvm." + className, translate(className, start, end));
+            if (bytes == null) return;
+            compiledClass = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            CompiledCode compiled = (CompiledCode) compiledClass.getDeclaredConstructor().newInstance();
+            for (int a : entryPoints(start, end)) this.compiledAt.set(a, compiled);
+            this.compiledFunctions++;
+        } catch (ReflectiveOperationException e) {
+            System.err.println("JIT: cannot load function at " + start + ": " + e);
+        }
+    }
+
+    // function entry and return addresses (those following a js)
+    private List<Integer> entryPoints(int start, int end) {
+        List<Integer> points = new ArrayList<>();
+        points.add(start);
+        for (int a = start; a < end; a += length(this.code[a]))
+            if (this.code[a] == SVMParser.JS && a + 1 < end) points.add(a + 1);
+        return points;
+    }
+
+    private static int length(int opcode) {
+        return opcode == SVMParser.PUSH || opcode == SVMParser.BRANCH || opcode == SVMParser.BRANCHEQ
+                || opcode == SVMParser.BRANCHLESSEQ || opcode == SVMParser.NEW ? 2 : 1;
+    }
+
+    /**
+     * Java source of the function occupying code[start, end).
+     */
+    String translate(String className, int start, int end) {
+        StringBuilder s = new StringBuilder();
+        s.append("package visualsvm;\n\n");
+        s.append("final class ").append(className).append(" implements Jit.CompiledCode {\n");
+        s.append("    public long run(ExecuteVM vm, int[] mem, int[] r) {\n");
+        s.append("        int ip = r[0], sp = r[1], fp = r[2], hp = r[3], ra = r[4], tm = r[5], v1, v2;\n");
+        s.append("        long n = 0;\n");
+        s.append("        try {\n");
+        s.append("            loop:\n");
+        s.append("            while (true) {\n");
+        s.append("                switch (ip) {\n");
+        for (int a = start; a < end; a += length(this.code[a])) {
+            s.append("                    case ").append(a).append(":\n");
+            s.append("                        ").append(translate(a, start, end)).append('\n');
+        }
+        s.append("                    case ").append(end).append(":\n"); // falling off the end of the function
+        s.append("                        ip = ").append(end).append(";\n");
+        s.append("                        break loop;\n");
+        s.append("                    default:\n");
+        s.append("                        break loop;\n");
+        s.append("                }\n");
+        s.append("            }\n");
+        s.append("        } finally {\n");
+        s.append("            r[0] = ip; r[1] = sp; r[2] = fp; r[3] = hp; r[4] = ra; r[5] = tm;\n");
+        s.append("        }\n");
+        s.append("        return n;\n");
+        s.append("    }\n");
+        s.append("}\n");
+        return s.toString();
+    }
+
+    // Java statements for the instruction at address a
+    private String translate(int a, int start, int end) {
+        int operand = a + 1 < this.code.length ? this.code[a + 1] : 0;
+        String exit = "{ ip = " + a + "; break loop; }"; // leave the instruction to the interpreter
+        String grow = "if (sp - 1 <= hp) " + exit + " n++; mem[--sp] = ";
+        return switch (this.code[a]) {
+            case SVMParser.PUSH -> grow + operand + ";";
+            case SVMParser.POP -> "n++; sp++;";
+            case SVMParser.ADD -> "n++; v1 = mem[sp++]; mem[sp] += v1;";
+            case SVMParser.SUB -> "n++; v1 = mem[sp++]; mem[sp] -= v1;";
+            case SVMParser.MULT -> "n++; v1 = mem[sp++]; mem[sp] *= v1;";
+            case SVMParser.DIV -> "n++; v1 = mem[sp++]; mem[sp] /= v1;";
+            case SVMParser.STOREW -> "n++; v1 = mem[sp++]; mem[v1] = mem[sp++];";
+            case SVMParser.LOADW -> "n++; mem[sp] = mem[mem[sp]];";
+            case SVMParser.BRANCH -> "n++; " + jump(operand, start, end);
+            case SVMParser.BRANCHEQ ->
+                    "n++; v1 = mem[sp++]; v2 = mem[sp++]; if (v2 == v1) { " + jump(operand, start, end) + " }";
+            case SVMParser.BRANCHLESSEQ ->
+                    "n++; v1 = mem[sp++]; v2 = mem[sp++]; if (v2 <= v1) { " + jump(operand, start, end) + " }";
+            case SVMParser.JS -> "n++; ra = " + (a + 1) + "; ip = mem[sp++]; break loop;";
+            case SVMParser.LOADRA -> grow + "ra;";
+            case SVMParser.STORERA -> "n++; ra = mem[sp++];";
+            case SVMParser.LOADTM -> grow + "tm;";
+            case SVMParser.STORETM -> "n++; tm = mem[sp++];";
+            case SVMParser.LOADFP -> grow + "fp;";
+            case SVMParser.STOREFP -> "n++; fp = mem[sp++];";
+            case SVMParser.COPYFP -> "n++; fp = sp;";
+            case SVMParser.LOADHP -> grow + "hp;";
+            case SVMParser.PRINT -> "n++; vm.printTop(sp);";
+            default -> exit; // halt, shp, new and unknown words
+        };
+    }
+
+    private static String jump(int target, int start, int end) {
+        return "ip = " + target + "; " + (target >= start && target < end ? "continue loop;" : "break loop;");
+    }
+
+    // compiles one class in memory; null (and a message) on errors
+    private static byte[] javac(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<>(compiler.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                                                       FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject sourceFile = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        boolean ok = compiler.getTask(null, fileManager, diagnostics, List.of("-g:none"), null, List.of(sourceFile)).call();
+        if (!ok || !classes.containsKey(className)) {
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics())
+                System.err.println("JIT: " + d.getMessage(null));
+            return null;
+        }
+        return classes.get(className).toByteArray();
+    }
+}
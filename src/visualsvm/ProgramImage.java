@@ -0,0 +1,118 @@
+package visualsvm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assembled SVM program, stored on disk as a binary image so that it can be run without parsing any assembly.
+ * <p>
+ * Layout (big-endian ints, strings as length + UTF-8 bytes):
+ * <pre>
+ * header:    MAGIC, VERSION, code length, data length, label count, source line count
+ * code:      int[code length]
+ * sourceMap: int[code length]   (source line of each code word)
+ * data:      int[data length]   (read-only words loaded at memory address 0, e.g. dispatch tables)
+ * labels:    (name, address) * label count   (addresses in code, or in data for labels of the data segment)
+ * source:    line * source line count   (assembly text, for the debugger; may be empty)
+ * </pre>
+ */
+public class ProgramImage {
+
+    public static final int MAGIC = 0x464F4F4C; // "FOOL"
+    public static final int VERSION = 3; // 2: new instruction, 3: data segment
+
+    public final int[] code;
+    public final int[] sourceMap;
+    public final int[] data;
+    public final Map<String, Integer> labels;
+    public final List<String> source;
+
+    public ProgramImage(int[] code, int[] sourceMap, Map<String, Integer> labels, List<String> source) {
+        this(code, sourceMap, new int[0], labels, source);
+    }
+
+    public ProgramImage(int[] code, int[] sourceMap, int[] data, Map<String, Integer> labels, List<String> source) {
+        this.code = code;
+        this.sourceMap = sourceMap;
+        this.data = data;
+        this.labels = Collections.unmodifiableMap(labels);
+        this.source = Collections.unmodifiableList(source);
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(code.length);
+            out.writeInt(data.length);
+            out.writeInt(labels.size());
+            out.writeInt(source.size());
+            for (int x : code) out.writeInt(x);
+            for (int x : sourceMap) out.writeInt(x);
+            for (int x : data) out.writeInt(x);
+            for (Map.Entry<String, Integer> label : labels.entrySet()) {
+                writeString(out, label.getKey());
+                out.writeInt(label.getValue());
+            }
+            for (String line : source) writeString(out, line);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Loads an image through a read-only memory mapping of the file.
+     */
+    public static ProgramImage load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 24 || buffer.getInt() != MAGIC)
+                throw new IOException(path + " is not a FOOL program image");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException(path + " has image version " + version + ", expected " + VERSION);
+            int codeLength = buffer.getInt();
+            int dataLength = buffer.getInt();
+            int labelCount = buffer.getInt();
+            int sourceLines = buffer.getInt();
+
+            int[] code = new int[codeLength];
+            buffer.asIntBuffer().get(code);
+            buffer.position(buffer.position() + 4 * codeLength);
+            int[] sourceMap = new int[codeLength];
+            buffer.asIntBuffer().get(sourceMap);
+            buffer.position(buffer.position() + 4 * codeLength);
+            int[] data = new int[dataLength];
+            buffer.asIntBuffer().get(data);
+            buffer.position(buffer.position() + 4 * dataLength);
+
+            Map<String, Integer> labels = new LinkedHashMap<>();
+            for (int i = 0; i < labelCount; i++) labels.put(readString(buffer), buffer.getInt());
+            List<String> source = new ArrayList<>(sourceLines);
+            for (int i = 0; i < sourceLines; i++) source.add(readString(buffer));
+            return new ProgramImage(code, sourceMap, data, labels, source);
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
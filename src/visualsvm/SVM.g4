@@ -9,13 +9,20 @@ public int lexicalErrors=0;
 }
 
 @parser::members {
-public int[] code = new int[ExecuteVVM.CODESIZE];
-public int[] sourceMap = new int[ExecuteVVM.CODESIZE];
+public int[] code = new int[ExecuteVM.CODESIZE];
+public int[] sourceMap = new int[ExecuteVM.CODESIZE];
 private int i = 0;
-private Map<String,Integer> labelDef = new HashMap<>();
+public Map<String,Integer> labelDef = new HashMap<>();
+public int getCodeSize() { return i; }
 private Map<Integer,String> labelRef = new HashMap<>();
+public List<Integer> data = new ArrayList<>(); // data segment (see SVMAssembler)
+private Map<Integer,String> dataRef = new HashMap<>();
 private void codem(int line, int ... c) {
    	for (int x : c) {
+   		if (i == this.code.length) { // code size is not limited: arrays grow as needed
+   			this.code = Arrays.copyOf(this.code, 2 * i);
+   			this.sourceMap = Arrays.copyOf(this.sourceMap, 2 * i);
+   		}
    		this.code[i] = x;
    		this.sourceMap[i] = line-1;
    		i++;
@@ -26,13 +33,21 @@ private void codem(int line, int ... c) {
  * PARSER RULES
  *------------------------------------------------------------------*/
 
-assembly: instruction* EOF 	{ for (Integer j: labelRef.keySet())
+assembly: instruction* (DATA word* (TEXT instruction*)?)* EOF 	{ for (Integer j: labelRef.keySet())
 								code[j]=labelDef.get(labelRef.get(j));
+							  for (Integer j: dataRef.keySet())
+								data.set(j, labelDef.get(dataRef.get(j)));
 							} ;
 
+word:
+        l=LABEL COL            { labelDef.put($l.text, data.size()); } //LABEL points at the address of the subsequent data word
+	  | WORD n=INTEGER         { data.add(Integer.parseInt($n.text)); } //add NUMBER to the data segment
+	  | WORD l=LABEL           { dataRef.put(data.size(), $l.text); data.add(0); } //add the location address pointed by LABEL to the data segment
+	  ;
+
 instruction:
         t=PUSH n=INTEGER        { codem($t.line, PUSH, Integer.parseInt($n.text)); } //push NUMBER on the stack
-	  | t=PUSH l=LABEL         { codem($t.line, PUSH); labelRef.put(i++,$l.text); } //push the location address pointed by LABEL on the stack
+	  | t=PUSH l=LABEL         { codem($t.line, PUSH, 0); labelRef.put(i-1,$l.text); } //push the location address pointed by LABEL on the stack
 	  | t=POP                  { codem($t.line, POP); } //pop the top of the stack
 	  | t=ADD	                 { codem($t.line, ADD); } //replace the two values on top of the stack with their sum
 	  | t=SUB	                 { codem($t.line, SUB); } //pop the two values v1 and v2 (respectively) and push v2-v1
@@ -41,9 +56,9 @@ instruction:
 	  | t=STOREW               { codem($t.line, STOREW); } //pop two values: the second one is written at the memory address pointed by the first one
 	  | t=LOADW                { codem($t.line, LOADW); } //read the content of the memory cell pointed by the top of the stack and replace the top of the stack with such value
 	  | l=LABEL COL          { labelDef.put($l.text, i); } //LABEL points at the location of the subsequent instruction
-	  | t=BRANCH l=LABEL       { codem($t.line, BRANCH); labelRef.put(i++,$l.text); } //jump at the instruction pointed by LABEL
-	  | t=BRANCHEQ l=LABEL     { codem($t.line, BRANCHEQ); labelRef.put(i++,$l.text); } //pop two values and jump if they are equal
-	  | t=BRANCHLESSEQ l=LABEL { codem($t.line, BRANCHLESSEQ); labelRef.put(i++,$l.text); } //pop two values and jump if the second one is less or equal to the first one
+	  | t=BRANCH l=LABEL       { codem($t.line, BRANCH, 0); labelRef.put(i-1,$l.text); } //jump at the instruction pointed by LABEL
+	  | t=BRANCHEQ l=LABEL     { codem($t.line, BRANCHEQ, 0); labelRef.put(i-1,$l.text); } //pop two values and jump if they are equal
+	  | t=BRANCHLESSEQ l=LABEL { codem($t.line, BRANCHLESSEQ, 0); labelRef.put(i-1,$l.text); } //pop two values and jump if the second one is less or equal to the first one
 	  | t=JS                   { codem($t.line, JS); } //pop one value from the stack: copy the instruction pointer in the RA register and jump to the popped value
 	  | t=LOADRA               { codem($t.line, LOADRA); } //push in the stack the content of the RA register
 	  | t=STORERA              { codem($t.line, STORERA); } //pop the top of the stack and copy it in the RA register
@@ -56,6 +71,7 @@ instruction:
 	  | t=STOREHP              { codem($t.line, STOREHP); } //pop the top of the stack and copy it in the HP register
 	  | t=PRINT                { codem($t.line, PRINT); } //visualize the top of the stack without removing it
 	  | t=HALT                 { codem($t.line, HALT); } //terminate the execution
+	  | t=NEW n=INTEGER        { codem($t.line, NEW, Integer.parseInt($n.text)); } //allocate an object with NUMBER fields on the garbage collected heap (see ExecuteVM)
 	  ;
 
 /*------------------------------------------------------------------
@@ -85,6 +101,11 @@ LOADHP	 	: 'lhp' ;
 STOREHP	 	: 'shp' ;
 PRINT	 	: 'print' ;
 HALT	 	: 'halt' ;
+NEW	 		: 'new' ;
+
+DATA		: '.data' ;
+TEXT		: '.text' ;
+WORD		: '.word' ;
 
 COL	 		: ':' ;
 LABEL	 	: ('a'..'z'|'A'..'Z')('a'..'z' | 'A'..'Z' | '0'..'9')* ;
@@ -0,0 +1,176 @@
+package visualsvm;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static java.util.Map.entry;
+
+/**
+ * In-memory assembler for the code produced by the compiler: opcodes are written straight into an int[]
+ * buffer and label references are fixed up at the end, without going through an .asm file and SVMParser.
+ * Accepts the same instructions and directives as SVM.g4, one instruction, directive or label definition per line.
+ * <p>
+ * After ".data" (until ".text") lines define the data segment of the program image instead: ".word w" adds a word,
+ * an integer or the address of a (code) label, and labels defined there are data addresses, usable as
+ * immediates by push.
+ */
+public class SVMAssembler {
+
+    private static final Map<String, Integer> OPCODES = Map.ofEntries(
+            entry("push", SVMParser.PUSH),
+            entry("pop", SVMParser.POP),
+            entry("add", SVMParser.ADD),
+            entry("sub", SVMParser.SUB),
+            entry("mult", SVMParser.MULT),
+            entry("div", SVMParser.DIV),
+            entry("sw", SVMParser.STOREW),
+            entry("lw", SVMParser.LOADW),
+            entry("b", SVMParser.BRANCH),
+            entry("beq", SVMParser.BRANCHEQ),
+            entry("bleq", SVMParser.BRANCHLESSEQ),
+            entry("js", SVMParser.JS),
+            entry("lra", SVMParser.LOADRA),
+            entry("sra", SVMParser.STORERA),
+            entry("ltm", SVMParser.LOADTM),
+            entry("stm", SVMParser.STORETM),
+            entry("lfp", SVMParser.LOADFP),
+            entry("sfp", SVMParser.STOREFP),
+            entry("cfp", SVMParser.COPYFP),
+            entry("lhp", SVMParser.LOADHP),
+            entry("shp", SVMParser.STOREHP),
+            entry("print", SVMParser.PRINT),
+            entry("halt", SVMParser.HALT),
+            entry("new", SVMParser.NEW)
+    );
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern INTEGER = Pattern.compile("-?[0-9]+");
+
+    private int[] code = new int[1024];
+    private int[] sourceMap = new int[1024];
+    private int size = 0;
+    private final List<String> source = new ArrayList<>();
+    private final Map<String, Integer> labelDef = new HashMap<>();
+    private final List<String> labelRefs = new ArrayList<>(); // label referenced by the code word at labelRefAddresses[i]
+    private final List<Integer> labelRefAddresses = new ArrayList<>();
+    private boolean inData = false; // between .data and .text
+    private final List<Integer> data = new ArrayList<>();
+    private final List<String> dataRefs = new ArrayList<>(); // label referenced by the data word at dataRefAddresses[i]
+    private final List<Integer> dataRefAddresses = new ArrayList<>();
+    private final List<Integer> dataRefLines = new ArrayList<>();
+    private final PrintStream out; // error messages
+    public int errors = 0;
+
+    public SVMAssembler() {
+        this(System.out);
+    }
+
+    public SVMAssembler(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Assembles one line: blank, "label:" or an instruction with its optional argument.
+     */
+    public void line(String line) {
+        int lineNumber = source.size();
+        source.add(line);
+        String[] tokens = WHITESPACE.split(line.trim());
+        if (tokens[0].isEmpty()) return;
+        if (tokens.length == 1 && tokens[0].endsWith(":")) {
+            if (labelDef.put(tokens[0].substring(0, tokens[0].length() - 1), inData ? data.size() : size) != null)
+                error(lineNumber, "label " + tokens[0] + " defined twice");
+            return;
+        }
+        if (tokens[0].startsWith(".")) {
+            directive(tokens, lineNumber, line);
+            return;
+        }
+        if (inData) {
+            error(lineNumber, "instruction in the data segment \"" + line.trim() + "\"");
+            return;
+        }
+        Integer opcode = OPCODES.get(tokens[0]);
+        boolean hasArgument = opcode != null && (opcode == SVMParser.PUSH || opcode == SVMParser.BRANCH
+                || opcode == SVMParser.BRANCHEQ || opcode == SVMParser.BRANCHLESSEQ || opcode == SVMParser.NEW);
+        if (opcode == null || tokens.length != (hasArgument ? 2 : 1)) {
+            error(lineNumber, "invalid instruction \"" + line.trim() + "\"");
+            return;
+        }
+        emit(opcode, lineNumber);
+        if (!hasArgument) return;
+        String argument = tokens[1];
+        if ((opcode == SVMParser.PUSH || opcode == SVMParser.NEW) && INTEGER.matcher(argument).matches()) {
+            emit(Integer.parseInt(argument), lineNumber);
+        } else if (opcode == SVMParser.NEW) {
+            error(lineNumber, "new needs the number of fields");
+        } else {
+            labelRefAddresses.add(size);
+            labelRefs.add(argument);
+            emit(0, lineNumber);
+        }
+    }
+
+    private void directive(String[] tokens, int lineNumber, String line) {
+        if (tokens.length == 1 && tokens[0].equals(".data")) {
+            inData = true;
+        } else if (tokens.length == 1 && tokens[0].equals(".text")) {
+            inData = false;
+        } else if (tokens.length == 2 && tokens[0].equals(".word") && inData) {
+            if (INTEGER.matcher(tokens[1]).matches()) {
+                data.add(Integer.parseInt(tokens[1]));
+            } else {
+                dataRefAddresses.add(data.size());
+                dataRefs.add(tokens[1]);
+                dataRefLines.add(lineNumber);
+                data.add(0);
+            }
+        } else {
+            error(lineNumber, "invalid directive \"" + line.trim() + "\"");
+        }
+    }
+
+    private void emit(int word, int lineNumber) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+            sourceMap = Arrays.copyOf(sourceMap, size * 2);
+        }
+        code[size] = word;
+        sourceMap[size] = lineNumber;
+        size++;
+    }
+
+    private void error(int lineNumber, String message) {
+        out.println("Assembly error at line " + (lineNumber + 1) + ": " + message);
+        errors++;
+    }
+
+    /**
+     * Resolves label references and returns the assembled program.
+     */
+    public ProgramImage assemble() {
+        for (int i = 0; i < labelRefs.size(); i++) {
+            Integer address = labelDef.get(labelRefs.get(i));
+            if (address == null) {
+                error(sourceMap[labelRefAddresses.get(i)], "undefined label " + labelRefs.get(i));
+                continue;
+            }
+            code[labelRefAddresses.get(i)] = address;
+        }
+        for (int i = 0; i < dataRefs.size(); i++) {
+            Integer address = labelDef.get(dataRefs.get(i));
+            if (address == null) {
+                error(dataRefLines.get(i), "undefined label " + dataRefs.get(i));
+                continue;
+            }
+            data.set(dataRefAddresses.get(i), address);
+        }
+        return new ProgramImage(Arrays.copyOf(code, size), Arrays.copyOf(sourceMap, size),
+                data.stream().mapToInt(Integer::intValue).toArray(), labelDef, source);
+    }
+}
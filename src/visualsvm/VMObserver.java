@@ -0,0 +1,25 @@
+package visualsvm;
+
+/**
+ * Optional observer of an {@link ExecuteVM}, used by front-ends such as the debugger GUI.
+ */
+public interface VMObserver {
+
+    /**
+     * Called for every line printed by the program (and for runtime errors such as "Segmentation fault").
+     */
+    void output(String line);
+
+    /**
+     * Called before every write to the memory cell at the given address, with the value being overwritten.
+     */
+    default void memoryWrite(int address, int oldValue) {
+    }
+
+    /**
+     * Called when the execution is rewound: only the first length characters of the output are still valid.
+     */
+    default void outputRewound(int length) {
+    }
+
+}